@@ -0,0 +1,66 @@
+package com.example.telegrambot;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Запросы MyBotService на синтетических каталогах разного размера
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+    @Param({"10", "10000", "1000000"})
+    public int models;
+
+    private CarCatalog catalog;
+    private String model;
+    private String brand;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        catalog = CarCatalog.synthetic(models, 42);
+        MyBotService.load(catalog);
+        model = "Model " + (models - 1);
+        brand = MyBotService.getBrandOfModel(model).orElseThrow();
+    }
+
+    // Повторный запрос: ответ из кэша поиска
+    @Benchmark
+    public List<String> searchModelsPartial() {
+        return MyBotService.searchModelsPartial("model 7");
+    }
+
+    // Промах кэша: повторная загрузка того же каталога очищает кэш
+    @Benchmark
+    public List<String> searchModelsPartialMiss() {
+        MyBotService.load(catalog);
+        return MyBotService.searchModelsPartial("model 7");
+    }
+
+    @Benchmark
+    public Optional<String> getBrandOfModel() {
+        return MyBotService.getBrandOfModel(model);
+    }
+
+    @Benchmark
+    public Map<String, Long> getCategoryStats() {
+        return MyBotService.getCategoryStats();
+    }
+
+    @Benchmark
+    public Optional<String> getRandomModel() {
+        return MyBotService.getRandomModel();
+    }
+
+    @Benchmark
+    public String getModelDescription() {
+        return MyBotService.getModelDescription(brand, model);
+    }
+}
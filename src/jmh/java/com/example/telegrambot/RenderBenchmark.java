@@ -0,0 +1,66 @@
+package com.example.telegrambot;
+
+import org.openjdk.jmh.annotations.*;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.util.concurrent.TimeUnit;
+
+// Отрисовка ответов MyBot без отправки; запускать с -prof gc для оценки аллокаций
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final Long CHAT_ID = 123456789L;
+
+    @Param({"10", "10000", "1000000"})
+    public int models;
+
+    private MyBot bot;
+    private UserSession session;
+    private String brand;
+    private String category;
+    private String model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MyBotService.load(CarCatalog.synthetic(models, 42));
+        // Не из окружения: без сессий, аналитики и рассылок на диске и без настоящего токена
+        BotConfig config = new BotConfig();
+        config.setToken("benchmark");
+        bot = new MyBot(config);
+        session = new UserSession();
+
+        brand = MyBotService.getAllBrands().get(0);
+        category = MyBotService.getCarCategories(brand).keySet().iterator().next();
+        model = MyBotService.getAvailableModels(brand, category).get(0);
+        session.setSelectedBrand(brand);
+
+        for (int i = 0; i < Math.min(10, models); i++) {
+            session.addFavorite("Model " + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bot.onClosing();
+    }
+
+    @Benchmark
+    public SendMessage modelsListPage() {
+        return bot.renderModelsList(CHAT_ID, brand, category, 1, session);
+    }
+
+    @Benchmark
+    public SendMessage modelDetails() {
+        return bot.renderModelDetails(CHAT_ID, brand, model, session);
+    }
+
+    @Benchmark
+    public SendMessage favoritesList() {
+        return bot.renderFavorites(CHAT_ID, session, false);
+    }
+}
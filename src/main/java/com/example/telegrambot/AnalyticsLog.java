@@ -0,0 +1,247 @@
+package com.example.telegrambot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Журнал событий для общей аналитики (просмотры марок и моделей, поиск, викторина).
+// Обработчик заполняет заранее выделенную ячейку кольцевого буфера без блокировок и аллокаций,
+// как в BotLog, и не будит писателя, пока буфер не заполнен наполовину. Фоновый поток раз
+// в FLUSH_MILLIS переносит накопленное пакетом в файл-сегмент, отображенный в память;
+// сегмент сменяется при заполнении и в полночь UTC. При переполнении буфера события отбрасываются.
+//
+// Сегмент events-<yyyyMMdd>-<NNN>.bin: заголовок MAGIC, FORMAT, затем записи
+//   длина (int, без самого поля) | тип (byte) | время, мс (long) | chatId (long) | число (int) | строка a | строка b
+// Строка - длина в байтах UTF-8 (unsigned short, 0xFFFF - null) и байты. Длина 0 или конец файла - конец данных.
+// Разбор - AnalyticsReport
+final class AnalyticsLog {
+
+    // Порядковые номера пишутся в файл: новые типы только в конец
+    enum Type {
+        START,          // /start
+        BRAND_VIEW,     // a - марка
+        MODEL_VIEW,     // a - марка, b - модель
+        FAVORITE_ADD,   // a - модель
+        SEARCH,         // a - запрос, число - найдено моделей
+        FILTER,         // a - условие, число - найдено моделей
+        QUIZ_ANSWER,    // число - 1 правильно, 0 нет
+        QUIZ_TIMEOUT    // время на вопрос вышло без ответа
+    }
+
+    static final int MAGIC = 0x42414556;   // "BAEV"
+    static final int FORMAT = 1;
+    static final int HEADER = 8;
+    static final int NULL_STRING = 0xFFFF;
+
+    private static final int CAPACITY = 16384;
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_MILLIS = 200;
+    // Строки длиннее обрезаются: запрос пользователя может быть любым
+    private static final int MAX_STRING_CHARS = 256;
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    private static final class Slot {
+        Type type;
+        long timeMillis;
+        long chatId;
+        int value;
+        String a;
+        String b;
+    }
+
+    private final File dir;
+    private final long segmentBytes;
+    private final Slot[] slots = new Slot[CAPACITY];
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+    // Следующая ячейка писателя; производители читают ее, только чтобы решить, будить ли его
+    private volatile long head;
+    // Состояние писателя: используется только фоновым потоком
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    // Сутки UTC сегмента, номер от начала эпохи
+    private long segmentDay = -1;
+    private int segmentNumber;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder segments = new LongAdder();
+
+    AnalyticsLog(File dir, long segmentBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Не удалось создать каталог аналитики " + dir);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        for (int i = 0; i < CAPACITY; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        this.writer = new Thread(this::drain, "analytics-" + dir.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void record(Type type, long chatId, int value, String a, String b) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & MASK);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    Slot slot = slots[index];
+                    slot.type = type;
+                    slot.timeMillis = System.currentTimeMillis();
+                    slot.chatId = chatId;
+                    slot.value = value;
+                    slot.a = a;
+                    slot.b = b;
+                    sequences.lazySet(index, pos + 1);
+                    if (pos - head > CAPACITY / 2) {
+                        LockSupport.unpark(writer);
+                    }
+                    return;
+                }
+            } else if (diff < 0) {
+                dropped.increment();
+                return;
+            }
+        }
+    }
+
+    // Дописывает накопленное и закрывает сегмент
+    void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getWritten() { return written.sum(); }
+    long getDropped() { return dropped.sum(); }
+    long getSegments() { return segments.sum(); }
+
+    // Единственный читатель буфера
+    private void drain() {
+        while (true) {
+            boolean stopping = closed;
+            try {
+                while (writeNext()) {
+                    // Пакет: все, что накопилось с прошлого раза
+                }
+            } catch (IOException | RuntimeException e) {
+                BotLog.error("analytics", "Ошибка записи событий аналитики в " + dir, e);
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+            }
+            if (stopping) {
+                closeSegment();
+                return;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS));
+        }
+    }
+
+    // false - буфер пуст
+    private boolean writeNext() throws IOException {
+        int index = (int) (head & MASK);
+        if (sequences.get(index) != head + 1) {
+            return false;
+        }
+        Slot slot = slots[index];
+        byte[] a = encode(slot.a);
+        byte[] b = encode(slot.b);
+        int length = 1 + 8 + 8 + 4 + 2 + (a != null ? a.length : 0) + 2 + (b != null ? b.length : 0);
+        long day = Math.floorDiv(slot.timeMillis, TimeUnit.DAYS.toMillis(1));
+        if (segment == null || day != segmentDay || segment.remaining() < 4 + length + 4) {
+            openSegment(day);
+        }
+        segment.putInt(length);
+        segment.put((byte) slot.type.ordinal());
+        segment.putLong(slot.timeMillis);
+        segment.putLong(slot.chatId);
+        segment.putInt(slot.value);
+        putString(a);
+        putString(b);
+
+        slot.a = null;
+        slot.b = null;
+        sequences.lazySet(index, head + CAPACITY);
+        head++;
+        written.increment();
+        return true;
+    }
+
+    private void putString(byte[] bytes) {
+        if (bytes == null) {
+            segment.putShort((short) NULL_STRING);
+            return;
+        }
+        segment.putShort((short) bytes.length);
+        segment.put(bytes);
+    }
+
+    private static byte[] encode(String value) {
+        if (value == null) {
+            return null;
+        }
+        if (value.length() > MAX_STRING_CHARS) {
+            value = value.substring(0, MAX_STRING_CHARS);
+        }
+        // До 4 байт на символ: 256 символов всегда меньше NULL_STRING байт
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Новый сегмент всегда новый файл: после сбоя конец старого искать не нужно
+    private void openSegment(long day) throws IOException {
+        closeSegment();
+        if (day != segmentDay) {
+            segmentDay = day;
+            segmentNumber = 0;
+        }
+        String date = DAY.format(Instant.ofEpochMilli(TimeUnit.DAYS.toMillis(day)));
+        File file;
+        do {
+            file = new File(dir, String.format("events-%s-%03d.bin", date, segmentNumber++));
+        } while (file.exists());
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(MAGIC);
+        segment.putInt(FORMAT);
+        segments.increment();
+    }
+
+    // Данные отображения переживают падение процесса (они в кэше страниц ОС); force - на случай сбоя машины.
+    // Файл обрезается до записанного: нулевой хвост не нужен, конец файла - тоже конец данных
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            segment.force();
+            int end = segment.position();
+            segment = null;
+            channel.truncate(end);
+            channel.close();
+        } catch (IOException e) {
+            BotLog.error("analytics", "Ошибка закрытия сегмента аналитики", e);
+        }
+        channel = null;
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.telegrambot;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Сводка журнала AnalyticsLog по суткам UTC: топ марок и моделей, запросы без результатов,
+// точность викторины и воронка "марка -> модель -> избранное" (шаг засчитывается чату,
+// только если предыдущий был раньше в те же сутки). Читает сегменты, бота не запускает.
+//
+// mvn -q exec:java -Dexec.mainClass=com.example.telegrambot.AnalyticsReport \
+//     -Dexec.args="dir=analytics top=10 day=20250101"
+public class AnalyticsReport {
+
+    private static final AnalyticsLog.Type[] TYPES = AnalyticsLog.Type.values();
+    private static final AnalyticsLog.Type[] FUNNEL = {
+            AnalyticsLog.Type.BRAND_VIEW, AnalyticsLog.Type.MODEL_VIEW, AnalyticsLog.Type.FAVORITE_ADD
+    };
+
+    // Счетчики одних суток
+    static final class Day {
+        final Map<String, Long> brands = new HashMap<>();
+        final Map<String, Long> models = new HashMap<>();
+        final Map<String, Long> zeroResults = new HashMap<>();
+        final Map<Long, Integer> funnel = new HashMap<>();
+        long events;
+        long starts;
+        long searches;
+        long emptySearches;
+        long quizAnswers;
+        long quizCorrect;
+        long quizTimeouts;
+
+        void add(AnalyticsLog.Type type, long chatId, int value, String a, String b) {
+            events++;
+            // Активный чат - стадия 0 воронки
+            int stage = funnel.getOrDefault(chatId, 0);
+            if (stage < FUNNEL.length && FUNNEL[stage] == type) {
+                stage++;
+            }
+            funnel.put(chatId, stage);
+            switch (type) {
+                case START:
+                    starts++;
+                    break;
+                case BRAND_VIEW:
+                    brands.merge(a, 1L, Long::sum);
+                    break;
+                case MODEL_VIEW:
+                    models.merge(b, 1L, Long::sum);
+                    break;
+                case SEARCH:
+                case FILTER:
+                    searches++;
+                    if (value == 0 && a != null) {
+                        emptySearches++;
+                        zeroResults.merge(type.name().toLowerCase(Locale.ROOT) + ": "
+                                + a.trim().toLowerCase(Locale.ROOT), 1L, Long::sum);
+                    }
+                    break;
+                case QUIZ_ANSWER:
+                    quizAnswers++;
+                    quizCorrect += value;
+                    break;
+                case QUIZ_TIMEOUT:
+                    quizTimeouts++;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        File dir = new File(options.getOrDefault("dir", "analytics"));
+        int top = Integer.parseInt(options.getOrDefault("top", "10"));
+        String only = options.get("day");
+
+        File[] files = dir.listFiles((d, name) -> name.startsWith("events-") && name.endsWith(".bin")
+                && (only == null || name.startsWith("events-" + only + "-")));
+        if (files == null || files.length == 0) {
+            System.err.println("Нет сегментов аналитики в " + dir);
+            System.exit(1);
+        }
+        Arrays.sort(files);
+        SortedMap<String, Day> days = new TreeMap<>();
+        long records = 0;
+        for (File file : files) {
+            // Сутки - из имени сегмента: писатель не кладет в сегмент события других суток
+            String day = file.getName().substring("events-".length(), "events-".length() + 8);
+            records += read(file, days.computeIfAbsent(day, k -> new Day()));
+        }
+        System.out.printf("Сегментов: %d, событий: %d%n", files.length, records);
+        days.forEach((day, stats) -> print(day, stats, top));
+    }
+
+    // Число прочитанных событий; поврежденный хвост сегмента пропускается
+    static long read(File file, Day day) throws IOException {
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != AnalyticsLog.MAGIC) {
+                System.err.println(file + ": не сегмент аналитики");
+                return 0;
+            }
+            int format = in.readInt();
+            if (format != AnalyticsLog.FORMAT) {
+                System.err.println(file + ": неизвестный формат " + format);
+                return 0;
+            }
+            byte[] record = new byte[1024];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length == 0) {
+                    break;
+                }
+                if (record.length < length) {
+                    record = new byte[length];
+                }
+                try {
+                    in.readFully(record, 0, length);
+                } catch (EOFException e) {
+                    System.err.println(file + ": оборванная запись в конце");
+                    break;
+                }
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record, 0, length));
+                int type = fields.readUnsignedByte();
+                fields.readLong();
+                long chatId = fields.readLong();
+                int value = fields.readInt();
+                String a = readString(fields);
+                String b = readString(fields);
+                // Тип из более новой версии бота пропускается
+                if (type < TYPES.length) {
+                    day.add(TYPES[type], chatId, value, a, b);
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length == AnalyticsLog.NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void print(String day, Day stats, int top) {
+        System.out.printf("%n== %s-%s-%s: событий %d, чатов %d, /start %d%n", day.substring(0, 4),
+                day.substring(4, 6), day.substring(6), stats.events, stats.funnel.size(), stats.starts);
+        printTop("Марки", stats.brands, top);
+        printTop("Модели", stats.models, top);
+        System.out.printf("Поиск и подбор: %d, без результатов: %d (%.1f%%)%n", stats.searches,
+                stats.emptySearches, percent(stats.emptySearches, stats.searches));
+        printTop("Запросы без результатов", stats.zeroResults, top);
+        System.out.printf("Викторина: ответов %d, правильных %.1f%%, вышло время %d%n", stats.quizAnswers,
+                percent(stats.quizCorrect, stats.quizAnswers), stats.quizTimeouts);
+
+        long[] reached = new long[FUNNEL.length + 1];
+        for (int stage : stats.funnel.values()) {
+            for (int i = 0; i <= stage; i++) {
+                reached[i]++;
+            }
+        }
+        String[] names = {"активные чаты", "выбрали марку", "открыли модель", "добавили в избранное"};
+        System.out.println("Воронка:");
+        for (int i = 0; i < reached.length; i++) {
+            System.out.printf("  %-22s %8d  %5.1f%%%n", names[i], reached[i], percent(reached[i], reached[0]));
+        }
+    }
+
+    private static void printTop(String title, Map<String, Long> counts, int top) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        System.out.println(title + ":");
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(top)
+                .forEach(entry -> System.out.printf("  %8d  %s%n", entry.getValue(), entry.getKey()));
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.telegrambot;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+// Настройки экземпляра бота. По умолчанию берутся из переменных окружения
+class BotConfig {
+
+    static final String TELEGRAM_API_URL = "https://api.telegram.org/bot";
+
+    // Имя бота в метриках и файлах; null - единственный бот процесса
+    private String name;
+    private String token = "8433457326:AAE16QSmgNeAWni0X60mqtMxALkGXSxHyy4";
+    private String username = "@islombekcarcollection_bot";
+    private String apiUrl = TELEGRAM_API_URL;
+    private int rateLimitBurst = 8;
+    private double rateLimitPerSecond = 1.0;
+    private Long randomSeed;
+    private String recordFile;
+    private boolean overloadControl = true;
+    private long recommendationsRefreshMillis = 30_000;
+    private int profileSampleEvery;
+    private long modeTimeoutMillis = 300_000;
+    private int quizTimeLimitSeconds = 30;
+    private Set<Long> adminChatIds = Collections.emptySet();
+    private String broadcastDir;
+    private double broadcastPerSecond = 20;
+    private String mediaDir;
+    private Long mediaChatId;
+    private String sessionDir;
+    private int sessionCacheSize = 100_000;
+    private String analyticsDir;
+
+    static BotConfig fromEnv() {
+        BotConfig config = new BotConfig();
+        String token = System.getenv("BOT_TOKEN");
+        if (token != null && !token.isEmpty()) {
+            config.setToken(token);
+        }
+        String username = System.getenv("BOT_USERNAME");
+        if (username != null && !username.isEmpty()) {
+            config.setUsername(username);
+        }
+        String apiUrl = System.getenv("BOT_API_URL");
+        if (apiUrl != null && !apiUrl.isEmpty()) {
+            config.setApiUrl(apiUrl);
+        }
+        String seed = System.getenv("BOT_RANDOM_SEED");
+        if (seed != null && !seed.isEmpty()) {
+            config.setRandomSeed(Long.parseLong(seed));
+        }
+        config.setRecordFile(System.getenv("BOT_RECORD_FILE"));
+        String profile = System.getenv("BOT_PROFILE_HANDLERS");
+        if (profile != null && !profile.isEmpty()) {
+            config.setProfileSampleEvery(Integer.parseInt(profile));
+        }
+        String quizLimit = System.getenv("BOT_QUIZ_TIME_LIMIT");
+        if (quizLimit != null && !quizLimit.isEmpty()) {
+            config.setQuizTimeLimitSeconds(Integer.parseInt(quizLimit));
+        }
+        String admins = System.getenv("BOT_ADMINS");
+        if (admins != null && !admins.isEmpty()) {
+            config.setAdminChatIds(parseIds(admins));
+        }
+        String broadcastDir = System.getenv("BOT_BROADCAST_DIR");
+        config.setBroadcastDir(broadcastDir != null && !broadcastDir.isEmpty() ? broadcastDir : "broadcast");
+        config.setMediaDir(System.getenv("BOT_MEDIA_DIR"));
+        String mediaChat = System.getenv("BOT_MEDIA_CHAT");
+        if (mediaChat != null && !mediaChat.isEmpty()) {
+            config.setMediaChatId(Long.parseLong(mediaChat));
+        }
+        String sessionDir = System.getenv("BOT_SESSION_DIR");
+        config.setSessionDir(sessionDir != null && !sessionDir.isEmpty() ? sessionDir : "sessions");
+        String analyticsDir = System.getenv("BOT_ANALYTICS_DIR");
+        config.setAnalyticsDir(analyticsDir != null && !analyticsDir.isEmpty() ? analyticsDir : "analytics");
+        String sessionCache = System.getenv("BOT_SESSION_CACHE");
+        if (sessionCache != null && !sessionCache.isEmpty()) {
+            config.setSessionCacheSize(Integer.parseInt(sessionCache));
+        }
+        return config;
+    }
+
+    // Несколько ботов в одном процессе (BOT_CONFIG). Файл в формате properties:
+    //   bots=cars,trucks
+    //   cars.token=...
+    //   cars.username=@cars_bot
+    //   cars.admins=123,456
+    // Незаданные ключи берутся из переменных окружения, как для одного бота;
+    // каталоги рассылок, сессий и аналитики у каждого бота свои: <BOT_BROADCAST_DIR>/<имя> и т.д.
+    static List<BotConfig> load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String bots = properties.getProperty("bots", "").trim();
+        if (bots.isEmpty()) {
+            throw new IOException(file + ": не задан список ботов (bots=...)");
+        }
+        List<BotConfig> configs = new ArrayList<>();
+        Set<String> tokens = new HashSet<>();
+        for (String name : bots.split(",")) {
+            name = name.trim();
+            BotConfig config = fromEnv();
+            config.setName(name);
+            config.setRecordFile(null);
+            config.setBroadcastDir(new File(config.getBroadcastDir(), name).getPath());
+            config.setSessionDir(new File(config.getSessionDir(), name).getPath());
+            config.setAnalyticsDir(new File(config.getAnalyticsDir(), name).getPath());
+            String prefix = name + ".";
+            String token = properties.getProperty(prefix + "token");
+            if (token == null || token.trim().isEmpty()) {
+                throw new IOException(file + ": не задан " + prefix + "token");
+            }
+            if (!tokens.add(token.trim())) {
+                throw new IOException(file + ": токен бота " + name + " уже используется");
+            }
+            config.setToken(token.trim());
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(prefix)) {
+                    config.apply(key.substring(prefix.length()), properties.getProperty(key).trim());
+                }
+            }
+            configs.add(config);
+        }
+        return configs;
+    }
+
+    private void apply(String key, String value) throws IOException {
+        switch (key) {
+            case "token":
+                break;
+            case "username": setUsername(value); break;
+            case "apiUrl": setApiUrl(value); break;
+            case "rateLimitBurst": setRateLimitBurst(Integer.parseInt(value)); break;
+            case "rateLimitPerSecond": setRateLimitPerSecond(Double.parseDouble(value)); break;
+            case "recordFile": setRecordFile(value.isEmpty() ? null : value); break;
+            case "quizTimeLimit": setQuizTimeLimitSeconds(Integer.parseInt(value)); break;
+            case "admins": setAdminChatIds(value.isEmpty() ? Collections.emptySet() : parseIds(value)); break;
+            case "broadcastDir": setBroadcastDir(value.isEmpty() ? null : value); break;
+            case "broadcastPerSecond": setBroadcastPerSecond(Double.parseDouble(value)); break;
+            case "mediaDir": setMediaDir(value.isEmpty() ? null : value); break;
+            case "mediaChat": setMediaChatId(value.isEmpty() ? null : Long.parseLong(value)); break;
+            case "sessionDir": setSessionDir(value.isEmpty() ? null : value); break;
+            case "sessionCache": setSessionCacheSize(Integer.parseInt(value)); break;
+            case "analyticsDir": setAnalyticsDir(value.isEmpty() ? null : value); break;
+            default:
+                throw new IOException("Неизвестный параметр бота " + name + ": " + key);
+        }
+    }
+
+    private static Set<Long> parseIds(String list) {
+        Set<Long> ids = new HashSet<>();
+        for (String id : list.split(",")) {
+            ids.add(Long.parseLong(id.trim()));
+        }
+        return ids;
+    }
+
+    // Геттеры и сеттеры
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public String getToken() { return token; }
+    public void setToken(String token) { this.token = token; }
+
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+
+    // Базовый адрес Bot API вида http://host:port/bot (токен дописывается библиотекой)
+    public String getApiUrl() { return apiUrl; }
+    public void setApiUrl(String apiUrl) { this.apiUrl = apiUrl; }
+
+    public int getRateLimitBurst() { return rateLimitBurst; }
+    public void setRateLimitBurst(int burst) { this.rateLimitBurst = burst; }
+
+    public double getRateLimitPerSecond() { return rateLimitPerSecond; }
+    public void setRateLimitPerSecond(double perSecond) { this.rateLimitPerSecond = perSecond; }
+
+    // null - сид выбирается при запуске
+    public Long getRandomSeed() { return randomSeed; }
+    public void setRandomSeed(Long randomSeed) { this.randomSeed = randomSeed; }
+
+    // Файл журнала трафика (.jsonl.gz); null - запись выключена
+    public String getRecordFile() { return recordFile; }
+    public void setRecordFile(String recordFile) { this.recordFile = recordFile; }
+
+    // Упрощенные ответы при перегрузке; при воспроизведении выключаются, т.к. зависят от времени
+    public boolean isOverloadControl() { return overloadControl; }
+    public void setOverloadControl(boolean overloadControl) { this.overloadControl = overloadControl; }
+
+    // Период пересчета рекомендаций; 0 - не пересчитывать
+    public long getRecommendationsRefreshMillis() { return recommendationsRefreshMillis; }
+    public void setRecommendationsRefreshMillis(long millis) { this.recommendationsRefreshMillis = millis; }
+
+    // Замер памяти и CPU обработчиков: 0 - выключен, N - каждый N-й вызов
+    public int getProfileSampleEvery() { return profileSampleEvery; }
+    public void setProfileSampleEvery(int sampleEvery) { this.profileSampleEvery = sampleEvery; }
+
+    // Через сколько без сообщений режим поиска, сравнения или фильтра сбрасывается; 0 - никогда
+    public long getModeTimeoutMillis() { return modeTimeoutMillis; }
+    public void setModeTimeoutMillis(long millis) { this.modeTimeoutMillis = millis; }
+
+    // Время на ответ в викторине; 0 - без ограничения
+    public int getQuizTimeLimitSeconds() { return quizTimeLimitSeconds; }
+    public void setQuizTimeLimitSeconds(int seconds) { this.quizTimeLimitSeconds = seconds; }
+
+    // Чаты администраторов: им доступна команда /broadcast
+    public Set<Long> getAdminChatIds() { return adminChatIds; }
+    public void setAdminChatIds(Set<Long> adminChatIds) { this.adminChatIds = adminChatIds; }
+
+    // Каталог с прогрессом рассылки; null - рассылки выключены
+    public String getBroadcastDir() { return broadcastDir; }
+    public void setBroadcastDir(String broadcastDir) { this.broadcastDir = broadcastDir; }
+
+    // Сообщений рассылки в секунду; остаток общего лимита Telegram (~30/с) - интерактивным ответам
+    public double getBroadcastPerSecond() { return broadcastPerSecond; }
+    public void setBroadcastPerSecond(double perSecond) { this.broadcastPerSecond = perSecond; }
+
+    // Каталог с фото моделей (<модель>.jpg); null - карточки без фото
+    public String getMediaDir() { return mediaDir; }
+    public void setMediaDir(String mediaDir) { this.mediaDir = mediaDir; }
+
+    // Служебный чат для предзагрузки фото популярных моделей; null - без предзагрузки
+    public Long getMediaChatId() { return mediaChatId; }
+    public void setMediaChatId(Long mediaChatId) { this.mediaChatId = mediaChatId; }
+
+    // Каталог журнала сессий; null - сессии только в памяти и теряются при перезапуске
+    public String getSessionDir() { return sessionDir; }
+    public void setSessionDir(String sessionDir) { this.sessionDir = sessionDir; }
+
+    // Сессий в памяти перед журналом; остальные читаются с диска при обращении
+    public int getSessionCacheSize() { return sessionCacheSize; }
+    public void setSessionCacheSize(int size) { this.sessionCacheSize = size; }
+
+    // Каталог сегментов журнала аналитики; null - события не пишутся
+    public String getAnalyticsDir() { return analyticsDir; }
+    public void setAnalyticsDir(String analyticsDir) { this.analyticsDir = analyticsDir; }
+}
@@ -0,0 +1,196 @@
+package com.example.telegrambot;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Асинхронный журнал: запись в заранее выделенные ячейки кольцевого буфера без блокировок,
+// форматирование и вывод в stderr - в фоновом потоке. При переполнении записи отбрасываются
+// и считаются, вызывающий поток никогда не ждет. Стек-трейсы печатаются не чаще TRACES_PER_SECOND
+final class BotLog {
+
+    enum Level {
+        INFO, WARN, ERROR
+    }
+
+    private static final int CAPACITY = 8192;
+    private static final int TRACES_PER_SECOND = 5;
+
+    // Ячейка журнала; поля заполняет поток-писатель записи, читает фоновый поток
+    private static final class Slot {
+        long timeMillis;
+        Level level;
+        String event;
+        long chatId;
+        BotMetrics.UpdateType type;
+        String handler;
+        long latencyNanos;
+        String message;
+        Throwable error;
+    }
+
+    private static final int MASK = CAPACITY - 1;
+    private static final Slot[] SLOTS = new Slot[CAPACITY];
+    private static final AtomicLongArray SEQUENCES = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong TAIL = new AtomicLong();
+    private static long head;
+
+    private static final LongAdder WRITTEN = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final LongAdder TRACES_SUPPRESSED = new LongAdder();
+    // Состояние ограничения стек-трейсов; используется только фоновым потоком
+    private static long traceWindow;
+    private static int tracesInWindow;
+
+    private static final Thread WRITER;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            SLOTS[i] = new Slot();
+            SEQUENCES.set(i, i);
+        }
+        Thread thread = new Thread(BotLog::drain, "bot-log");
+        thread.setDaemon(true);
+        thread.start();
+        WRITER = thread;
+    }
+
+    private BotLog() {
+    }
+
+    static void info(String event, String message) {
+        log(Level.INFO, event, 0, null, null, -1, message, null);
+    }
+
+    static void warn(String event, long chatId, String message) {
+        log(Level.WARN, event, chatId, null, null, -1, message, null);
+    }
+
+    static void error(String event, String message, Throwable error) {
+        log(Level.ERROR, event, 0, null, null, -1, message, error);
+    }
+
+    // Ошибка обработки обновления со всеми полями; latencyNanos < 0 - не выводить
+    static void error(String event, long chatId, BotMetrics.UpdateType type, String handler,
+                      long latencyNanos, String message, Throwable error) {
+        log(Level.ERROR, event, chatId, type, handler, latencyNanos, message, error);
+    }
+
+    static long getWritten() { return WRITTEN.sum(); }
+    static long getDropped() { return DROPPED.sum(); }
+    static long getTracesSuppressed() { return TRACES_SUPPRESSED.sum(); }
+
+    private static void log(Level level, String event, long chatId, BotMetrics.UpdateType type, String handler,
+                            long latencyNanos, String message, Throwable error) {
+        while (true) {
+            long pos = TAIL.get();
+            int index = (int) (pos & MASK);
+            long diff = SEQUENCES.get(index) - pos;
+            if (diff == 0) {
+                if (TAIL.compareAndSet(pos, pos + 1)) {
+                    Slot slot = SLOTS[index];
+                    slot.timeMillis = System.currentTimeMillis();
+                    slot.level = level;
+                    slot.event = event;
+                    slot.chatId = chatId;
+                    slot.type = type;
+                    slot.handler = handler;
+                    slot.latencyNanos = latencyNanos;
+                    slot.message = message;
+                    slot.error = error;
+                    SEQUENCES.lazySet(index, pos + 1);
+                    LockSupport.unpark(WRITER);
+                    return;
+                }
+            } else if (diff < 0) {
+                DROPPED.increment();
+                return;
+            }
+        }
+    }
+
+    // Единственный читатель буфера
+    private static void drain() {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.err, StandardCharsets.UTF_8), 16 * 1024));
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            int index = (int) (head & MASK);
+            if (SEQUENCES.get(index) != head + 1) {
+                out.flush();
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                continue;
+            }
+            Slot slot = SLOTS[index];
+            line.setLength(0);
+            format(slot, line);
+            out.println(line);
+            if (slot.error != null && allowTrace()) {
+                slot.error.printStackTrace(out);
+            }
+            slot.event = null;
+            slot.handler = null;
+            slot.message = null;
+            slot.error = null;
+            SEQUENCES.lazySet(index, head + CAPACITY);
+            head++;
+            WRITTEN.increment();
+        }
+    }
+
+    // Строка вида: 2025-01-01T12:00:00Z ERROR event=update chat=42 type=MESSAGE handler=sendCarQuiz latency_ms=1.25 msg="..."
+    private static void format(Slot slot, StringBuilder line) {
+        line.append(Instant.ofEpochMilli(slot.timeMillis)).append(' ').append(slot.level)
+                .append(" event=").append(slot.event);
+        if (slot.chatId != 0) {
+            line.append(" chat=").append(slot.chatId);
+        }
+        if (slot.type != null) {
+            line.append(" type=").append(slot.type);
+        }
+        if (slot.handler != null) {
+            line.append(" handler=").append(slot.handler);
+        }
+        if (slot.latencyNanos >= 0) {
+            line.append(" latency_ms=").append(slot.latencyNanos / 1000 / 1000.0);
+        }
+        if (slot.message != null) {
+            line.append(" msg=\"").append(slot.message).append('"');
+        }
+        if (slot.error != null) {
+            line.append(" error=").append(slot.error.getClass().getName());
+            if (slot.error.getMessage() != null) {
+                line.append(" error_msg=\"").append(slot.error.getMessage()).append('"');
+            }
+        }
+    }
+
+    // Окно в одну секунду: лишние стек-трейсы только считаются
+    private static boolean allowTrace() {
+        long second = System.currentTimeMillis() / 1000;
+        if (traceWindow != second) {
+            traceWindow = second;
+            tracesInWindow = 0;
+        }
+        if (++tracesInWindow <= TRACES_PER_SECOND) {
+            return true;
+        }
+        TRACES_SUPPRESSED.increment();
+        return false;
+    }
+
+    // При завершении: дождаться, пока фоновый поток выведет накопленное
+    static void flush(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (WRITTEN.sum() < TAIL.get() && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.telegrambot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Метрики бота: счетчики обновлений, гистограммы обработчиков и вызовов API, датчики.
+// Экспортируются в текстовом формате Prometheus; если в процессе несколько ботов, у каждой серии метка bot
+final class BotMetrics {
+
+    enum UpdateType { MESSAGE, CALLBACK, OTHER }
+
+    enum Outcome { HANDLED, THROTTLED, REJECTED, STALE, ERROR }
+
+    private static final class Gauge {
+        final String name;
+        final String family;
+        final String type;
+        final String help;
+        final DoubleSupplier value;
+
+        Gauge(String name, String type, String help, DoubleSupplier value) {
+            int brace = name.indexOf('{');
+            this.name = name;
+            this.family = brace < 0 ? name : name.substring(0, brace);
+            this.type = type;
+            this.help = help;
+            this.value = value;
+        }
+    }
+
+    private final LongAdder[][] updates = new LongAdder[UpdateType.values().length][Outcome.values().length];
+    private final LatencyHistogram[] handlers = new LatencyHistogram[Route.values().length];
+    // Замеры HandlerProfiler: число замеров, выделенные байты и время CPU по маршрутам
+    private final LongAdder[] profiledCalls = new LongAdder[Route.values().length];
+    private final LongAdder[] allocatedBytes = new LongAdder[Route.values().length];
+    private final LongAdder[] cpuNanos = new LongAdder[Route.values().length];
+    private final Map<String, LatencyHistogram> apiCalls = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> apiErrors = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final List<Gauge> gauges = new ArrayList<>();
+    // bot="имя" или пустая строка
+    private final String botLabel;
+    // Только датчики: метрики общих для ботов компонентов, без обновлений и вызовов API
+    private final boolean gaugesOnly;
+
+    BotMetrics() {
+        this(null);
+    }
+
+    // bot - имя бота для метки; null - без метки
+    BotMetrics(String bot) {
+        this(bot, false);
+    }
+
+    private BotMetrics(String bot, boolean gaugesOnly) {
+        this.botLabel = bot == null ? "" : "bot=\"" + bot + "\"";
+        this.gaugesOnly = gaugesOnly;
+        for (LongAdder[] row : updates) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = new LongAdder();
+            }
+        }
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = new LatencyHistogram();
+            profiledCalls[i] = new LongAdder();
+            allocatedBytes[i] = new LongAdder();
+            cpuNanos[i] = new LongAdder();
+        }
+    }
+
+    static BotMetrics gaugesOnly() {
+        return new BotMetrics(null, true);
+    }
+
+    void onUpdate(UpdateType type, Outcome outcome) {
+        updates[type.ordinal()][outcome.ordinal()].increment();
+    }
+
+    void recordHandler(Route route, long nanos) {
+        handlers[route.ordinal()].recordNanos(nanos);
+    }
+
+    void recordHandlerCost(Route route, long bytes, long cpu) {
+        int i = route.ordinal();
+        profiledCalls[i].increment();
+        allocatedBytes[i].add(bytes);
+        cpuNanos[i].add(cpu);
+    }
+
+    void recordApiCall(String method, long nanos, boolean failed) {
+        apiCalls.computeIfAbsent(method, k -> new LatencyHistogram()).recordNanos(nanos);
+        if (failed) {
+            apiErrors.computeIfAbsent(method, k -> new LongAdder()).increment();
+        }
+    }
+
+    void onError(String where) {
+        errors.computeIfAbsent(where, k -> new LongAdder()).increment();
+    }
+
+    synchronized void gauge(String name, String help, DoubleSupplier value) {
+        gauges.add(new Gauge(series(name), "gauge", help, value));
+    }
+
+    // Монотонный счетчик, который ведет сам компонент
+    synchronized void counter(String name, String help, DoubleSupplier value) {
+        gauges.add(new Gauge(series(name), "counter", help, value));
+    }
+
+    // Метка бота добавляется первой: name{bot="...",...}
+    private String series(String name) {
+        if (botLabel.isEmpty()) {
+            return name;
+        }
+        int brace = name.indexOf('{');
+        return brace < 0 ? name + "{" + botLabel + "}"
+                : name.substring(0, brace + 1) + botLabel + "," + name.substring(brace + 1);
+    }
+
+    private String labels(String labels) {
+        return botLabel.isEmpty() ? labels : botLabel + "," + labels;
+    }
+
+    // Пишется, только если профилирование включено и были замеры
+    private void writeHandlerCosts(StringBuilder out) {
+        boolean any = false;
+        for (LongAdder calls : profiledCalls) {
+            any |= calls.sum() > 0;
+        }
+        if (!any) {
+            return;
+        }
+        String[] names = {"bot_handler_profiled_calls_total", "bot_handler_allocated_bytes_total",
+                "bot_handler_cpu_seconds_total"};
+        String[] help = {"Замеренные вызовы обработчиков", "Память, выделенная в замеренных вызовах",
+                "Время CPU в замеренных вызовах"};
+        for (int metric = 0; metric < names.length; metric++) {
+            out.append("# HELP ").append(names[metric]).append(' ').append(help[metric]).append('\n');
+            out.append("# TYPE ").append(names[metric]).append(" counter\n");
+            for (Route route : Route.values()) {
+                int i = route.ordinal();
+                long calls = profiledCalls[i].sum();
+                if (calls == 0) {
+                    continue;
+                }
+                out.append(names[metric]).append('{').append(labels("route=\"" + route.name().toLowerCase()
+                        + "\",handler=\"" + route.getHandler() + "\"")).append("} ");
+                if (metric == 0) {
+                    out.append(calls);
+                } else if (metric == 1) {
+                    out.append(allocatedBytes[i].sum());
+                } else {
+                    out.append(cpuNanos[i].sum() / 1e9);
+                }
+                out.append('\n');
+            }
+        }
+    }
+
+    // Датчики стадии конвейера
+    void stage(StageStats stats) {
+        String label = "{stage=\"" + stats.getName() + "\"}";
+        gauge("bot_stage_depth" + label, "Задач в очереди стадии", stats::getDepth);
+        counter("bot_stage_accepted_total" + label, "Принято задач", stats::getAccepted);
+        counter("bot_stage_rejected_total" + label, "Отклонено из-за переполнения", stats::getRejected);
+        counter("bot_stage_processed_total" + label, "Обработано задач", stats::getProcessed);
+        gauge("bot_stage_queue_seconds_avg" + label, "Среднее ожидание в очереди",
+                () -> stats.getAverageQueueNanos() / 1e9);
+        gauge("bot_stage_queue_seconds_max" + label, "Максимальное ожидание в очереди",
+                () -> stats.getMaxQueueNanos() / 1e9);
+        gauge("bot_stage_service_seconds_avg" + label, "Среднее время выполнения",
+                () -> stats.getAverageServiceNanos() / 1e9);
+    }
+
+    void writeTo(StringBuilder out) {
+        if (!gaugesOnly) {
+            writeUpdatesAndCalls(out);
+        }
+        writeGauges(out);
+    }
+
+    private void writeUpdatesAndCalls(StringBuilder out) {
+        out.append("# HELP bot_updates_total Обновления по типу и результату\n");
+        out.append("# TYPE bot_updates_total counter\n");
+        for (UpdateType type : UpdateType.values()) {
+            for (Outcome outcome : Outcome.values()) {
+                out.append("bot_updates_total{").append(labels("type=\"" + type.name().toLowerCase()
+                        + "\",outcome=\"" + outcome.name().toLowerCase() + "\"")).append("} ")
+                        .append(updates[type.ordinal()][outcome.ordinal()].sum()).append('\n');
+            }
+        }
+
+        out.append("# HELP bot_handler_latency_seconds Время работы обработчиков\n");
+        out.append("# TYPE bot_handler_latency_seconds histogram\n");
+        for (Route route : Route.values()) {
+            LatencyHistogram histogram = handlers[route.ordinal()];
+            if (histogram.getCount() > 0) {
+                writeHistogram(out, "bot_handler_latency_seconds",
+                        labels("route=\"" + route.name().toLowerCase() + "\",handler=\"" + route.getHandler() + "\""),
+                        histogram);
+            }
+        }
+
+        writeHandlerCosts(out);
+
+        out.append("# HELP bot_api_latency_seconds Время вызовов Telegram API\n");
+        out.append("# TYPE bot_api_latency_seconds histogram\n");
+        apiCalls.forEach((method, histogram) ->
+                writeHistogram(out, "bot_api_latency_seconds", labels("method=\"" + method + "\""), histogram));
+
+        out.append("# HELP bot_api_errors_total Ошибки вызовов Telegram API\n");
+        out.append("# TYPE bot_api_errors_total counter\n");
+        apiErrors.forEach((method, count) -> out.append("bot_api_errors_total{")
+                .append(labels("method=\"" + method + "\"")).append("} ").append(count.sum()).append('\n'));
+
+        out.append("# HELP bot_errors_total Ошибки обработки\n");
+        out.append("# TYPE bot_errors_total counter\n");
+        errors.forEach((where, count) -> out.append("bot_errors_total{")
+                .append(labels("where=\"" + where + "\"")).append("} ").append(count.sum()).append('\n'));
+    }
+
+    private void writeGauges(StringBuilder out) {
+        List<Gauge> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(gauges);
+        }
+        // Серии одного семейства должны идти подряд
+        snapshot.sort(Comparator.comparing(gauge -> gauge.family));
+        String lastFamily = null;
+        for (Gauge gauge : snapshot) {
+            if (!gauge.family.equals(lastFamily)) {
+                out.append("# HELP ").append(gauge.family).append(' ').append(gauge.help).append('\n');
+                out.append("# TYPE ").append(gauge.family).append(' ').append(gauge.type).append('\n');
+                lastFamily = gauge.family;
+            }
+            out.append(gauge.name).append(' ').append(gauge.value.getAsDouble()).append('\n');
+        }
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] cumulative = histogram.cumulativeCounts();
+        long count = histogram.getCount();
+        for (int i = 0; i < cumulative.length; i++) {
+            out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                    .append(LatencyHistogram.EXPORT_BOUNDS[i]).append("\"} ").append(cumulative[i]).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ").append(histogram.getSumSeconds()).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+}
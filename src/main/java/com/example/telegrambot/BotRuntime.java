@@ -0,0 +1,88 @@
+package com.example.telegrambot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Общая для ботов процесса часть: потоки обработчиков и отправки, таймеры, контроль перегрузки,
+// кэш отрисовки (ответы зависят только от каталога, а он тоже общий). У каждого бота свои сессии,
+// ограничение частоты, рейтинг и рассылки. Останавливается, когда закрыт последний бот
+final class BotRuntime {
+
+    static final int DEFAULT_SENDERS = 8;
+
+    // Конвейер: приём -> обработчики (по чатам) -> очередь отправки
+    private final PipelineStage handlers = new PipelineStage("handlers",
+            Runtime.getRuntime().availableProcessors(), 1024, 2000);
+    private final PipelineStage outbound;
+    // Таймеры сессий: тик 100 мс, 512 ячеек; сработавший таймер выполняется в шарде своего чата
+    private final TimerWheel timers = new TimerWheel("timers", 100, 512,
+            (chatId, timeout) -> handlers.trySubmit(chatId, queued -> timeout.run()));
+    // Цель ожидания 20 мс, интервал 100 мс, обновления старше 30 с отбрасываются
+    private final OverloadController overload = new OverloadController(20, 100, 30_000);
+    // Общие для всех пользователей ответы: страницы моделей, клавиатуры, топы; до 16 МБ
+    private final RenderCache renderCache = new RenderCache(16L << 20);
+    // Метрики общих компонентов, без метки бота
+    private final BotMetrics metrics = BotMetrics.gaugesOnly();
+    private final AtomicInteger bots = new AtomicInteger();
+
+    BotRuntime() {
+        this(DEFAULT_SENDERS);
+    }
+
+    // senders - потоков отправки на все боты; вызовы API разных ботов не ограничивают друг друга
+    BotRuntime(int senders) {
+        this.outbound = new PipelineStage("outbound", senders, 1024, 1000);
+
+        metrics.stage(handlers.getStats());
+        metrics.stage(outbound.getStats());
+        metrics.gauge("bot_runtime_bots", "Ботов в процессе", bots::get);
+        metrics.gauge("bot_timers_pending", "Ожидающих таймеров сессий", timers::getPending);
+        metrics.counter("bot_timers_expired_total", "Сработавших таймеров", timers::getExpired);
+        metrics.counter("bot_timers_cancelled_total", "Отмененных таймеров", timers::getCancelled);
+        metrics.counter("bot_timers_deferred_total", "Срабатываний, отложенных из-за полной очереди",
+                timers::getDeferred);
+        metrics.counter("bot_search_cache_hits_total", "Поисковых запросов из кэша",
+                MyBotService::getSearchCacheHits);
+        metrics.counter("bot_search_cache_misses_total", "Поисковых запросов по каталогу",
+                MyBotService::getSearchCacheMisses);
+        metrics.gauge("bot_search_cache_entries", "Запросов в кэше поиска", MyBotService::getSearchCacheSize);
+        metrics.counter("bot_render_cache_hits_total", "Ответов из кэша отрисовки", renderCache::getHits);
+        metrics.counter("bot_render_cache_misses_total", "Ответов, отрисованных заново", renderCache::getMisses);
+        metrics.counter("bot_render_cache_evictions_total", "Вытесненных из кэша отрисовки", renderCache::getEvictions);
+        metrics.gauge("bot_render_cache_bytes", "Оценка памяти кэша отрисовки", renderCache::getWeight);
+        metrics.counter("bot_log_written_total", "Записей журнала выведено", BotLog::getWritten);
+        metrics.counter("bot_log_dropped_total", "Записей журнала отброшено при переполнении", BotLog::getDropped);
+        metrics.counter("bot_log_traces_suppressed_total", "Стек-трейсов пропущено ограничителем",
+                BotLog::getTracesSuppressed);
+        metrics.gauge("bot_overloaded", "1, если включен режим упрощенных ответов",
+                () -> overload.isOverloaded() ? 1 : 0);
+        metrics.counter("bot_overload_shed_total", "Запросов, отклоненных при перегрузке", overload::getShedCount);
+        metrics.counter("bot_overload_degraded_total", "Запросов, упрощенных при перегрузке",
+                overload::getDegradedCount);
+        metrics.counter("bot_overload_stale_total", "Устаревших обновлений, пропущенных без обработки",
+                overload::getStaleCount);
+    }
+
+    // Бот подключается при создании и отключается в onClosing
+    void attach() {
+        bots.incrementAndGet();
+    }
+
+    void detach() {
+        if (bots.decrementAndGet() == 0) {
+            shutdown();
+        }
+    }
+
+    PipelineStage getHandlers() { return handlers; }
+    PipelineStage getOutbound() { return outbound; }
+    TimerWheel getTimers() { return timers; }
+    OverloadController getOverload() { return overload; }
+    RenderCache getRenderCache() { return renderCache; }
+    BotMetrics getMetrics() { return metrics; }
+
+    private void shutdown() {
+        timers.shutdown();
+        handlers.shutdown();
+        outbound.shutdown();
+    }
+}
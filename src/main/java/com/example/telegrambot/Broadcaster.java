@@ -0,0 +1,449 @@
+package com.example.telegrambot;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Рассылка по всем известным чатам. Список получателей пишется потоком в файл при запуске,
+// отдельный поток читает его и отправляет не быстрее perSecond, уступая очереди интерактивных ответов.
+// Прогресс (курсор по файлу) сохраняется на диск, после падения рассылка продолжается с него:
+// повторно могут получить сообщение только те, чья отправка была в полете (не больше WINDOW)
+final class Broadcaster {
+
+    interface Sender {
+        // false - очередь отправки переполнена
+        boolean send(long chatId, String text, Runnable onSent, Consumer<TelegramApiException> onError);
+    }
+
+    // Итог или промежуточное состояние рассылки
+    static final class Report {
+        final boolean running;
+        // Прервана: список получателей не читается
+        final boolean aborted;
+        final long total;
+        final long done;
+        final long sent;
+        final long blocked;
+        final long failed;
+        final double perSecond;
+
+        Report(boolean running, boolean aborted, long total, long done, long sent, long blocked, long failed,
+               double perSecond) {
+            this.running = running;
+            this.aborted = aborted;
+            this.total = total;
+            this.done = done;
+            this.sent = sent;
+            this.blocked = blocked;
+            this.failed = failed;
+            this.perSecond = perSecond;
+        }
+    }
+
+    // Отправок в полете одновременно
+    private static final int WINDOW = 64;
+    // Интерактивные ответы в очереди отправки, при которых рассылка ждет
+    private static final int YIELD_DEPTH = 32;
+    private static final long CHECKPOINT_MILLIS = 1000;
+    // Попыток прочитать список получателей, прежде чем рассылка прерывается
+    private static final int READ_ATTEMPTS = 3;
+    private static final long READ_RETRY_MILLIS = 1000;
+
+    private final File dir;
+    private final double perSecond;
+    private final Sender sender;
+    private final StageStats outbound;
+    private final Consumer<Report> onFinished;
+    // Чаты, заблокировавшие бота; пропускаются, пока снова не напишут боту
+    private final Set<Long> blocked = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder sentTotal = new LongAdder();
+    private final LongAdder blockedTotal = new LongAdder();
+    private final LongAdder failedTotal = new LongAdder();
+
+    private volatile Job job;
+    private Thread worker;
+
+    // Состояние одной рассылки; поля под монитором задания
+    private final class Job implements Runnable {
+        final String text;
+        final long admin;
+        final long total;
+        final long startedMillis;
+        final long resumedDone;
+        // Номер получателя в файле -> завершена ли отправка; done - все до него завершены
+        final boolean[] completed = new boolean[WINDOW];
+        final ConcurrentLinkedQueue<long[]> retries = new ConcurrentLinkedQueue<>();
+        long done;
+        long issued;
+        long sent;
+        long blockedCount;
+        long failedCount;
+        long pausedUntil;
+        volatile boolean finished;
+        volatile boolean aborted;
+        // checkpoint зовут и поток рассылки, и shutdown; записи временных файлов не должны перемешиваться.
+        // Отдельный монитор, чтобы запись на диск не задерживала отметки об отправке
+        private final Object checkpointLock = new Object();
+
+        Job(String text, long admin, long total, long done, long sent, long blockedCount, long failedCount,
+            long startedMillis) {
+            this.text = text;
+            this.admin = admin;
+            this.total = total;
+            this.done = done;
+            this.issued = done;
+            this.sent = sent;
+            this.blockedCount = blockedCount;
+            this.failedCount = failedCount;
+            this.startedMillis = startedMillis;
+            this.resumedDone = done;
+        }
+
+        @Override
+        public void run() {
+            long sessionStarted = System.nanoTime();
+            // Ошибка чтения может быть временной (диск, NFS), а может быть постоянной (файл обрезан):
+            // после READ_ATTEMPTS рассылка завершается с ошибкой, иначе она заняла бы рассылки навсегда
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    deliver();
+                    break;
+                } catch (IOException e) {
+                    if (attempt >= READ_ATTEMPTS) {
+                        BotLog.error("broadcast", "Список получателей не читается, рассылка прервана", e);
+                        aborted = true;
+                        break;
+                    }
+                    BotLog.error("broadcast", "Ошибка чтения списка получателей, попытка " + attempt
+                            + " из " + READ_ATTEMPTS, e);
+                    try {
+                        Thread.sleep(READ_RETRY_MILLIS * attempt);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            finished = true;
+            checkpoint();
+            double seconds = Math.max(1e-3, (System.nanoTime() - sessionStarted) / 1e9);
+            Report report;
+            synchronized (this) {
+                report = new Report(false, aborted, total, done, sent, blockedCount, failedCount,
+                        (done - resumedDone) / seconds);
+            }
+            BotLog.info("broadcast", String.format("Рассылка %s: отправлено %d из %d, заблокировали %d, "
+                    + "ошибок %d, %.1f сообщений/с", report.aborted ? "прервана" : "завершена", report.sent,
+                    report.total, report.blocked, report.failed, report.perSecond));
+            onFinished.accept(report);
+        }
+
+        // Чтение списка с курсора issued и отправка до конца; при повторе продолжает с того же места
+        private void deliver() throws IOException, InterruptedException {
+            long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+            long nextSend = System.nanoTime();
+            long lastCheckpoint = System.currentTimeMillis();
+            try (DataInputStream recipients = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(new File(dir, "recipients.bin")), 64 * 1024))) {
+                skip(recipients, issued * Long.BYTES);
+                while (true) {
+                    synchronized (this) {
+                        if (done >= total) {
+                            return;
+                        }
+                    }
+                    if (System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_MILLIS) {
+                        checkpoint();
+                        lastCheckpoint = System.currentTimeMillis();
+                    }
+                    long wait = Math.max(nextSend - System.nanoTime(),
+                            TimeUnit.MILLISECONDS.toNanos(pausedUntil() - System.currentTimeMillis()));
+                    if (wait > 0 || outbound.getDepth() - inFlight() > YIELD_DEPTH) {
+                        Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                        continue;
+                    }
+
+                    long[] recipient = retries.poll();
+                    if (recipient == null) {
+                        synchronized (this) {
+                            if (issued >= total || issued - done >= WINDOW) {
+                                wait(10);
+                                continue;
+                            }
+                            recipient = new long[]{issued, recipients.readLong()};
+                            issued++;
+                        }
+                    }
+                    if (blocked.contains(recipient[1])) {
+                        complete(recipient[0], Outcome.SKIPPED);
+                    } else {
+                        nextSend = Math.max(nextSend + intervalNanos, System.nanoTime() - intervalNanos);
+                        send(recipient);
+                    }
+                }
+            }
+        }
+
+        private void send(long[] recipient) {
+            long index = recipient[0];
+            long chatId = recipient[1];
+            boolean queued = sender.send(chatId, text, () -> complete(index, Outcome.SENT), e -> {
+                if (e instanceof TelegramApiRequestException) {
+                    TelegramApiRequestException request = (TelegramApiRequestException) e;
+                    Integer code = request.getErrorCode();
+                    if (code != null && code == 429) {
+                        // Общий лимит Telegram: пауза на retry_after, получатель повторяется
+                        Integer retryAfter = request.getParameters() != null
+                                ? request.getParameters().getRetryAfter() : null;
+                        pause(retryAfter != null ? retryAfter : 1);
+                        retries.add(recipient);
+                        return;
+                    }
+                    if (code != null && code == 403) {
+                        blocked.add(chatId);
+                        complete(index, Outcome.BLOCKED);
+                        return;
+                    }
+                }
+                BotLog.warn("broadcast", chatId, "Не удалось отправить рассылку: " + e.getMessage());
+                complete(index, Outcome.FAILED);
+            });
+            if (!queued) {
+                pause(1);
+                retries.add(recipient);
+            }
+        }
+
+        private synchronized void pause(int seconds) {
+            pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + seconds * 1000L);
+        }
+
+        private synchronized long pausedUntil() {
+            return pausedUntil;
+        }
+
+        private synchronized long inFlight() {
+            return issued - done;
+        }
+
+        private synchronized void complete(long index, Outcome outcome) {
+            switch (outcome) {
+                case SENT:
+                    sent++;
+                    sentTotal.increment();
+                    break;
+                case BLOCKED:
+                    blockedCount++;
+                    blockedTotal.increment();
+                    break;
+                case FAILED:
+                    failedCount++;
+                    failedTotal.increment();
+                    break;
+                default:
+                    break;
+            }
+            completed[(int) (index % WINDOW)] = true;
+            while (done < issued && completed[(int) (done % WINDOW)]) {
+                completed[(int) (done % WINDOW)] = false;
+                done++;
+            }
+            notifyAll();
+        }
+
+        synchronized Report report() {
+            double seconds = Math.max(1e-3, (System.currentTimeMillis() - startedMillis) / 1000.0);
+            return new Report(!finished, aborted, total, done, sent, blockedCount, failedCount, done / seconds);
+        }
+
+        private void checkpoint() {
+            synchronized (checkpointLock) {
+                Properties state = new Properties();
+                synchronized (this) {
+                    state.setProperty("text", text);
+                    state.setProperty("admin", Long.toString(admin));
+                    state.setProperty("total", Long.toString(total));
+                    state.setProperty("done", Long.toString(done));
+                    state.setProperty("sent", Long.toString(sent));
+                    state.setProperty("blocked", Long.toString(blockedCount));
+                    state.setProperty("failed", Long.toString(failedCount));
+                    state.setProperty("started", Long.toString(startedMillis));
+                    state.setProperty("finished", Boolean.toString(finished));
+                state.setProperty("aborted", Boolean.toString(aborted));
+                }
+                try {
+                    writeAtomically(new File(dir, "job.properties"), out -> state.store(
+                            new OutputStreamWriter(out, StandardCharsets.UTF_8), null));
+                    writeAtomically(new File(dir, "blocked.bin"), out -> {
+                        DataOutputStream data = new DataOutputStream(out);
+                        for (Long chatId : blocked) {
+                            data.writeLong(chatId);
+                        }
+                        data.flush();
+                    });
+                } catch (IOException e) {
+                    BotLog.error("broadcast", "Не удалось сохранить прогресс рассылки", e);
+                }
+            }
+        }
+    }
+
+    private enum Outcome {
+        SENT, BLOCKED, FAILED, SKIPPED
+    }
+
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    Broadcaster(File dir, double perSecond, Sender sender, StageStats outbound, Consumer<Report> onFinished) {
+        this.dir = dir;
+        this.perSecond = perSecond;
+        this.sender = sender;
+        this.outbound = outbound;
+        this.onFinished = onFinished;
+    }
+
+    // Запуск новой рассылки; false - предыдущая еще идет
+    synchronized boolean start(String text, long admin, Iterator<Long> chatIds) throws IOException {
+        if (job != null && !job.finished) {
+            return false;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Не удалось создать каталог " + dir);
+        }
+        long[] total = {0};
+        writeAtomically(new File(dir, "recipients.bin"), out -> {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+            while (chatIds.hasNext()) {
+                data.writeLong(chatIds.next());
+                total[0]++;
+            }
+            data.flush();
+        });
+        launch(new Job(text, admin, total[0], 0, 0, 0, 0, System.currentTimeMillis()));
+        return true;
+    }
+
+    // Продолжить рассылку, прерванную остановкой или падением процесса
+    synchronized boolean resume() {
+        File file = new File(dir, "job.properties");
+        if (!file.isFile()) {
+            return false;
+        }
+        Properties state = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            state.load(reader);
+            loadBlocked();
+        } catch (IOException e) {
+            BotLog.error("broadcast", "Не удалось прочитать прогресс рассылки", e);
+            return false;
+        }
+        if (Boolean.parseBoolean(state.getProperty("finished"))) {
+            return false;
+        }
+        Job resumed = new Job(state.getProperty("text"), Long.parseLong(state.getProperty("admin")),
+                Long.parseLong(state.getProperty("total")), Long.parseLong(state.getProperty("done")),
+                Long.parseLong(state.getProperty("sent")), Long.parseLong(state.getProperty("blocked")),
+                Long.parseLong(state.getProperty("failed")), Long.parseLong(state.getProperty("started")));
+        BotLog.info("broadcast", "Продолжение рассылки с получателя " + resumed.done + " из " + resumed.total);
+        launch(resumed);
+        return true;
+    }
+
+    // Пользователь снова пишет боту - значит, разблокировал
+    void onActivity(long chatId) {
+        if (!blocked.isEmpty()) {
+            blocked.remove(chatId);
+        }
+    }
+
+    // null - рассылок еще не было
+    Report report() {
+        Job current = job;
+        return current != null ? current.report() : null;
+    }
+
+    long getSent() { return sentTotal.sum(); }
+    long getBlocked() { return blockedTotal.sum(); }
+    long getFailed() { return failedTotal.sum(); }
+
+    long getRemaining() {
+        Job current = job;
+        if (current == null) {
+            return 0;
+        }
+        synchronized (current) {
+            return current.total - current.done;
+        }
+    }
+
+    void shutdown() {
+        Job current = job;
+        if (current != null && !current.finished) {
+            current.checkpoint();
+        }
+        Thread thread = worker;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void launch(Job next) {
+        job = next;
+        next.checkpoint();
+        Thread thread = new Thread(next, "broadcast");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    private void loadBlocked() throws IOException {
+        File file = new File(dir, "blocked.bin");
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            for (long i = file.length() / Long.BYTES; i > 0; i--) {
+                blocked.add(in.readLong());
+            }
+        }
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                throw new EOFException("Список получателей короче сохраненного курсора");
+            }
+            bytes -= skipped;
+        }
+    }
+
+    // Запись во временный файл и атомарная замена: после падения файл либо старый, либо новый
+    private static void writeAtomically(File target, Writer writer) throws IOException {
+        File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            writer.write(out);
+            out.flush();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.telegrambot;
+
+import java.util.*;
+
+// Неизменяемый снимок каталога: бренды, категории и модели. Версия растет при каждой загрузке
+final class CarCatalog {
+
+    static final String NOT_AVAILABLE = "не доступно";
+    static final List<String> CATEGORIES = Collections.unmodifiableList(
+            Arrays.asList("седан", "внедорожник", "купе", "пикап", "маслкар"));
+
+    private static long versions = 0;
+
+    private final long version;
+    private final Map<String, MyBotService.CarInfo<String>> cars;
+    private final TreeMap<String, String> descriptions;
+    private final QuizBank quizBank;
+    private final SpecStore specs;
+
+    CarCatalog(Map<String, MyBotService.CarInfo<String>> cars, TreeMap<String, String> descriptions) {
+        this.version = nextVersion();
+        this.cars = cars;
+        this.descriptions = descriptions;
+        this.quizBank = QuizBank.build(this);
+        this.specs = SpecStore.build(this);
+    }
+
+    private static synchronized long nextVersion() {
+        return ++versions;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    Map<String, MyBotService.CarInfo<String>> getCars() {
+        return cars;
+    }
+
+    TreeMap<String, String> getDescriptions() {
+        return descriptions;
+    }
+
+    QuizBank getQuizBank() {
+        return quizBank;
+    }
+
+    SpecStore getSpecs() {
+        return specs;
+    }
+
+    // Встроенный каталог BMW и Dodge
+    static CarCatalog builtIn() {
+        Map<String, List<String>> bmw = new HashMap<>();
+        bmw.put("седан", Arrays.asList("3 Series", "5 Series", "7 Series"));
+        bmw.put("внедорожник", Arrays.asList("X3", "X5", "X7"));
+        bmw.put("купе", Arrays.asList("2 Series", "4 Series", "8 Series"));
+        bmw.put("пикап", Collections.singletonList(NOT_AVAILABLE));
+        bmw.put("маслкар", Arrays.asList("M3", "M5", "M8"));
+
+        Map<String, List<String>> dodge = new HashMap<>();
+        dodge.put("седан", Arrays.asList("Charger", "Challenger"));
+        dodge.put("внедорожник", Collections.singletonList("Durango"));
+        dodge.put("купе", Collections.singletonList("Challenger Coupe"));
+        dodge.put("пикап", Collections.singletonList("Ram"));
+        dodge.put("маслкар", Arrays.asList("Charger SRT Hellcat", "Challenger SRT Demon"));
+
+        Map<String, MyBotService.CarInfo<String>> cars = new HashMap<>();
+        cars.put("BMW", new MyBotService.CarInfo<>("BMW", "German", bmw));
+        cars.put("Dodge", new MyBotService.CarInfo<>("Dodge", "American", dodge));
+
+        TreeMap<String, String> descriptions = new TreeMap<>();
+        descriptions.put("BMW", "German Luxury");
+        descriptions.put("Dodge", "American Muscle");
+
+        return new CarCatalog(cars, descriptions);
+    }
+
+    // Синтетический каталог заданного размера (бенчмарки, нагрузочные тесты, прогрев)
+    static CarCatalog synthetic(int modelCount, long seed) {
+        Random random = new Random(seed);
+        int brandCount = Math.max(2, Math.min(1000, modelCount / 100));
+
+        Map<String, Map<String, List<String>>> byBrand = new LinkedHashMap<>();
+        for (int b = 0; b < brandCount; b++) {
+            Map<String, List<String>> categories = new HashMap<>();
+            for (String category : CATEGORIES) {
+                categories.put(category, new ArrayList<>());
+            }
+            byBrand.put("Brand" + b, categories);
+        }
+
+        List<String> brands = new ArrayList<>(byBrand.keySet());
+        for (int i = 0; i < modelCount; i++) {
+            String brand = brands.get(random.nextInt(brandCount));
+            String category = CATEGORIES.get(random.nextInt(CATEGORIES.size()));
+            byBrand.get(brand).get(category).add("Model " + i);
+        }
+
+        Map<String, MyBotService.CarInfo<String>> cars = new HashMap<>();
+        TreeMap<String, String> descriptions = new TreeMap<>();
+        byBrand.forEach((brand, categories) -> {
+            categories.values().removeIf(List::isEmpty);
+            cars.put(brand, new MyBotService.CarInfo<>(brand, "Synthetic", categories));
+            descriptions.put(brand, "Synthetic brand");
+        });
+        return new CarCatalog(cars, descriptions);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.telegrambot;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+
+// Разделяемые fork-join задачи над диапазоном номеров моделей [0, size).
+// Диапазон делится пополам, пока не станет меньше THRESHOLD; маленькие каталоги
+// (встроенный, большинство реальных) обрабатываются в вызывающем потоке без пула
+final class CatalogTasks {
+
+    static final int THRESHOLD = 1 << 14;
+
+    interface RangeAction {
+        void apply(int from, int to);
+    }
+
+    interface RangeFunction<T> {
+        T apply(int from, int to);
+    }
+
+    private CatalogTasks() {
+    }
+
+    static void forEach(int size, RangeAction action) {
+        forEach(size, THRESHOLD, action);
+    }
+
+    // Порог в единицах диапазона: для крупных элементов (списков моделей) он меньше
+    static void forEach(int size, int threshold, RangeAction action) {
+        if (size <= threshold) {
+            action.apply(0, size);
+        } else {
+            ForkJoinPool.commonPool().invoke(new ForEach(action, threshold, 0, size));
+        }
+    }
+
+    // Свертка: leaf считает частичный результат для куска, combine объединяет соседние куски
+    // в порядке возрастания номеров, поэтому результат не зависит от числа потоков
+    static <T> T reduce(int size, RangeFunction<T> leaf, BinaryOperator<T> combine) {
+        if (size <= THRESHOLD) {
+            return leaf.apply(0, size);
+        }
+        return ForkJoinPool.commonPool().invoke(new Reduce<>(leaf, combine, 0, size));
+    }
+
+    private static final class ForEach extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeAction action;
+        private final int threshold;
+        private final int from;
+        private final int to;
+
+        ForEach(RangeAction action, int threshold, int from, int to) {
+            this.action = action;
+            this.threshold = threshold;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                action.apply(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ForEach(action, threshold, from, mid), new ForEach(action, threshold, mid, to));
+        }
+    }
+
+    private static final class Reduce<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeFunction<T> leaf;
+        private final BinaryOperator<T> combine;
+        private final int from;
+        private final int to;
+
+        Reduce(RangeFunction<T> leaf, BinaryOperator<T> combine, int from, int to) {
+            this.leaf = leaf;
+            this.combine = combine;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected T compute() {
+            if (to - from <= THRESHOLD) {
+                return leaf.apply(from, to);
+            }
+            int mid = (from + to) >>> 1;
+            Reduce<T> left = new Reduce<>(leaf, combine, from, mid);
+            left.fork();
+            T right = new Reduce<>(leaf, combine, mid, to).compute();
+            return combine.apply(left.join(), right);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.telegrambot;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Ограничение частоты запросов по chatId: token bucket на каждый чат.
+// Состояние хранится в примитивных массивах (открытая адресация), пополнение ленивое,
+// давно неактивные чаты удаляются при очередном расширении таблицы
+final class ChatRateLimiter {
+
+    enum Decision {
+        ALLOW,      // обработать
+        THROTTLE,   // отклонить и один раз предупредить пользователя
+        MUTE,       // отклонить и сообщить о временной блокировке
+        DROP        // отклонить молча
+    }
+
+    private static final int SEGMENTS = 16;
+    private static final int MILLI = 1000;
+
+    private final int burstMilli;
+    private final long refillMillisPerToken;
+    private final int strikesToMute;
+    private final long muteMillis;
+    private final long idleExpiryMillis;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder muted = new LongAdder();
+
+    ChatRateLimiter(int burst, double tokensPerSecond, int strikesToMute, long muteMillis) {
+        this.burstMilli = burst * MILLI;
+        this.refillMillisPerToken = Math.max(1, Math.round(1000 / tokensPerSecond));
+        this.strikesToMute = strikesToMute;
+        this.muteMillis = muteMillis;
+        // Через это время корзина гарантированно полна и блокировка снята
+        this.idleExpiryMillis = burst * refillMillisPerToken + muteMillis;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(64);
+        }
+    }
+
+    Decision acquire(long chatId) {
+        if (chatId == 0) {
+            return Decision.ALLOW;
+        }
+        long h = mix(chatId);
+        Decision decision = segments[(int) (h >>> 60)].acquire(chatId, h, System.currentTimeMillis());
+        if (decision == Decision.ALLOW) {
+            allowed.increment();
+        } else if (decision == Decision.MUTE) {
+            muted.increment();
+        } else {
+            throttled.increment();
+        }
+        return decision;
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    long getAllowed() { return allowed.sum(); }
+    long getThrottled() { return throttled.sum(); }
+    long getMuted() { return muted.sum(); }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private final class Segment {
+        long[] keys;
+        long[] lastRefill;
+        long[] mutedUntil;
+        int[] tokens;     // в тысячных долях токена
+        int[] strikes;
+        int size;
+
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            lastRefill = new long[capacity];
+            mutedUntil = new long[capacity];
+            tokens = new int[capacity];
+            strikes = new int[capacity];
+            size = 0;
+        }
+
+        synchronized Decision acquire(long key, long hash, long now) {
+            int slot = find(key, hash);
+            if (keys[slot] != key) {
+                if ((size + 1) * 2 > keys.length) {
+                    rehash(now);
+                    slot = find(key, hash);
+                }
+                keys[slot] = key;
+                lastRefill[slot] = now;
+                tokens[slot] = burstMilli;
+                size++;
+            }
+
+            if (mutedUntil[slot] > now) {
+                return Decision.DROP;
+            }
+
+            // Ленивое пополнение
+            long elapsed = now - lastRefill[slot];
+            if (elapsed > 0) {
+                long refill = elapsed * MILLI / refillMillisPerToken;
+                tokens[slot] = (int) Math.min(burstMilli, tokens[slot] + refill);
+                lastRefill[slot] = now;
+            }
+
+            if (tokens[slot] >= MILLI) {
+                tokens[slot] -= MILLI;
+                strikes[slot] = 0;
+                return Decision.ALLOW;
+            }
+
+            int strike = ++strikes[slot];
+            if (strike >= strikesToMute) {
+                mutedUntil[slot] = now + muteMillis;
+                strikes[slot] = 0;
+                return Decision.MUTE;
+            }
+            return strike == 1 ? Decision.THROTTLE : Decision.DROP;
+        }
+
+        private int find(long key, long hash) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Перестроение таблицы: истекшие записи выбрасываются, при необходимости емкость удваивается
+        private void rehash(long now) {
+            long[] oldKeys = keys;
+            long[] oldRefill = lastRefill;
+            long[] oldMuted = mutedUntil;
+            int[] oldTokens = tokens;
+            int[] oldStrikes = strikes;
+
+            int live = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0 && now - oldRefill[i] < idleExpiryMillis) {
+                    live++;
+                }
+            }
+            int capacity = oldKeys.length;
+            while ((live + 1) * 2 > capacity) {
+                capacity <<= 1;
+            }
+            allocate(capacity);
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0 && now - oldRefill[i] < idleExpiryMillis) {
+                    int slot = find(oldKeys[i], mix(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    lastRefill[slot] = oldRefill[i];
+                    mutedUntil[slot] = oldMuted[i];
+                    tokens[slot] = oldTokens[i];
+                    strikes[slot] = oldStrikes[i];
+                    size++;
+                }
+            }
+        }
+    }
+}
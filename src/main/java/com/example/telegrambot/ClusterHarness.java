@@ -0,0 +1,172 @@
+package com.example.telegrambot;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Проверка кластерного режима на одной машине: заглушка Bot API работает в этом процессе,
+// узлы бота - отдельные JVM (Main с BOT_CLUSTER_DIR). Сценарий:
+//   1. узлы node-1 и node-2; каждый чат добавляет модель в избранное;
+//   2. подключается node-3 - часть сессий переезжает к нему;
+//   3. node-1 (опрашивающий) останавливается по SIGTERM и отдает сессии оставшимся;
+//   4. каждый чат открывает избранное - модель должна остаться у всех.
+//
+// mvn -q compile exec:java -Dexec.mainClass=com.example.telegrambot.ClusterHarness -Dexec.args="chats=300"
+public class ClusterHarness {
+
+    private static final String MODEL = "M3";
+
+    private final StubTelegramApi stub;
+    private final File dir;
+    private final Map<String, Process> nodes = new LinkedHashMap<>();
+    // Ответы заглушке по чатам: добавление в избранное и содержимое избранного
+    private final Map<Long, LongAdder> added = new ConcurrentHashMap<>();
+    private final Map<Long, String> favorites = new ConcurrentHashMap<>();
+
+    ClusterHarness(StubTelegramApi stub, File dir) {
+        this.stub = stub;
+        this.dir = dir;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int chats = 300;
+        for (String arg : args) {
+            if (arg.startsWith("chats=")) {
+                chats = Integer.parseInt(arg.substring(6));
+            }
+        }
+        StubTelegramApi stub = new StubTelegramApi(0, 16).start();
+        File dir = Files.createTempDirectory("bot-cluster").toFile();
+        ClusterHarness harness = new ClusterHarness(stub, dir);
+        try {
+            harness.run(chats);
+        } finally {
+            harness.stopAll();
+            stub.stop();
+        }
+        System.exit(0);
+    }
+
+    void run(int chats) throws Exception {
+        stub.setListener((method, chatId, status, body) -> {
+            if (!method.equals("sendmessage") || status != 200) {
+                return;
+            }
+            String text = body.path("text").asText();
+            if (text.contains("добавлена в избранное")) {
+                added.computeIfAbsent(chatId, k -> new LongAdder()).increment();
+            } else if (text.contains("избранн")) {
+                favorites.put(chatId, text);
+            }
+        });
+
+        startNode("node-1");
+        startNode("node-2");
+        awaitMembers(2);
+        System.out.println("Узлы node-1, node-2; каталог " + dir);
+
+        for (long chatId = 1; chatId <= chats; chatId++) {
+            stub.enqueueUpdate(LoadTestHarness.callback(chatId, "favorite_" + MODEL));
+        }
+        awaitCount(() -> added.size(), chats, "добавление в избранное");
+
+        startNode("node-3");
+        awaitMembers(3);
+        // Узлы замечают новый состав на следующем шаге и передают ему сессии
+        TimeUnit.SECONDS.sleep(3);
+        System.out.println("Подключен node-3");
+
+        Process first = nodes.remove("node-1");
+        first.destroy();
+        first.waitFor(30, TimeUnit.SECONDS);
+        awaitMembers(2);
+        System.out.println("Остановлен node-1 (код " + first.exitValue() + ")");
+
+        for (long chatId = 1; chatId <= chats; chatId++) {
+            stub.enqueueUpdate(LoadTestHarness.text(chatId, "/favorites"));
+        }
+        awaitCount(favorites::size, chats, "просмотр избранного");
+
+        int kept = 0;
+        for (long chatId = 1; chatId <= chats; chatId++) {
+            String text = favorites.get(chatId);
+            if (text != null && text.contains("*" + MODEL + "*")) {
+                kept++;
+            }
+        }
+        long duplicates = added.values().stream().mapToLong(LongAdder::sum).filter(n -> n > 1).count();
+        System.out.printf("Чатов: %d, избранное сохранилось: %d, потеряно: %d, повторных ответов: %d%n",
+                chats, kept, chats - kept, duplicates);
+        System.out.println("Журналы узлов: " + dir);
+    }
+
+    private void startNode(String nodeId) throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", classPath(), Main.class.getName());
+        Map<String, String> env = builder.environment();
+        env.put("BOT_TOKEN", "cluster-test");
+        env.put("BOT_API_URL", stub.getApiUrl());
+        env.put("BOT_CLUSTER_DIR", new File(dir, "members").getPath());
+        env.put("BOT_NODE_ID", nodeId);
+        env.put("BOT_BROADCAST_DIR", new File(dir, "broadcast-" + nodeId).getPath());
+        env.put("BOT_SESSION_DIR", new File(dir, "sessions-" + nodeId).getPath());
+        env.put("BOT_ANALYTICS_DIR", new File(dir, "analytics-" + nodeId).getPath());
+        env.put("METRICS_PORT", "0");
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(dir, nodeId + ".log"));
+        nodes.put(nodeId, builder.start());
+    }
+
+    // Под exec:java классы проекта загружает отдельный загрузчик, java.class.path - это сам Maven
+    private static String classPath() {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader instanceof URLClassLoader) {
+            StringJoiner path = new StringJoiner(File.pathSeparator);
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                path.add(url.getPath());
+            }
+            return path.toString();
+        }
+        return System.getProperty("java.class.path");
+    }
+
+    private void awaitMembers(int count) throws InterruptedException {
+        File members = new File(dir, "members");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (System.nanoTime() < deadline) {
+            File[] files = members.listFiles((d, name) -> name.endsWith(".node"));
+            if (files != null && files.length == count) {
+                // Еще шаг, чтобы все узлы прочитали новый состав
+                TimeUnit.MILLISECONDS.sleep(1500);
+                return;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        throw new IllegalStateException("Не дождались " + count + " узлов, журналы: " + dir);
+    }
+
+    private static void awaitCount(java.util.function.IntSupplier current, int expected, String phase)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (current.getAsInt() < expected && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        System.out.printf("%s: ответов %d из %d%n", phase, current.getAsInt(), expected);
+    }
+
+    private void stopAll() throws InterruptedException {
+        for (Process node : nodes.values()) {
+            node.destroy();
+        }
+        for (Process node : nodes.values()) {
+            node.waitFor(30, TimeUnit.SECONDS);
+        }
+    }
+}
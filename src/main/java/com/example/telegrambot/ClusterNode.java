@@ -0,0 +1,403 @@
+package com.example.telegrambot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Узел кластера на одной машине. Узлы находят друг друга через общий каталог: каждый раз в секунду
+// переписывает файл <id>.node со своим портом, живыми считаются файлы моложе EXPIRE_MILLIS.
+// Чаты распределяются по живым узлам консистентным хешированием; обновление чужого чата
+// пересылается владельцу по HTTP (порядок внутри чата сохраняется), при смене состава
+// сессии переезжают к новым владельцам. Опрашивает Telegram только узел с наименьшим id
+final class ClusterNode {
+
+    // Вызывается в потоке кластера, когда узел становится или перестает быть опрашивающим
+    interface LeadershipListener {
+        void onLeadershipChanged(boolean leader);
+    }
+
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final long EXPIRE_MILLIS = 3500;
+    private static final long HANDOFF_TIMEOUT_MILLIS = 10_000;
+    private static final String SUFFIX = ".node";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Состав кластера: кольцо и порты узлов, заменяются вместе
+    private static final class Members {
+        final HashRing ring;
+        final Map<String, Integer> ports;
+
+        Members(Map<String, Integer> ports) {
+            this.ring = new HashRing(ports.keySet());
+            this.ports = ports;
+        }
+    }
+
+    private final String nodeId;
+    private final File dir;
+    private final HttpServer server;
+    private final int port;
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+    // Пересылка в шардах по chatId: обновления одного чата уходят владельцу по порядку
+    private final PipelineStage forwarder = new PipelineStage("forward", 4, 1024, 1000);
+    private final Map<String, MyBot> bots = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final LeadershipListener listener;
+
+    private volatile Members members;
+    private volatile boolean leaving;
+    private boolean leader;
+    private boolean rebalanceNeeded;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder forwardFailed = new LongAdder();
+    private final LongAdder handedOff = new LongAdder();
+    private final LongAdder adopted = new LongAdder();
+
+    private ClusterNode(String nodeId, File dir, HttpServer server, LeadershipListener listener) {
+        this.nodeId = nodeId;
+        this.dir = dir;
+        this.server = server;
+        this.port = server.getAddress().getPort();
+        this.listener = listener;
+        this.members = new Members(Collections.singletonMap(nodeId, port));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // port 0 - любой свободный; фактический порт узнают из файла узла.
+    // В состав узел входит после register(...) всех ботов, вызовом join()
+    static ClusterNode start(String nodeId, File dir, int port, LeadershipListener listener) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Не удалось создать каталог кластера " + dir);
+        }
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        ClusterNode node = new ClusterNode(nodeId, dir, http, listener);
+        http.createContext("/cluster/update/", node::handleUpdate);
+        http.createContext("/cluster/sessions/", node::handleSessions);
+        http.setExecutor(Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "cluster-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        http.start();
+        return node;
+    }
+
+    void join() {
+        scheduler.scheduleWithFixedDelay(this::heartbeat, 0, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Бот участвует в кластере под ключом getClusterKey(); у всех узлов одинаковый набор ботов
+    void register(MyBot bot) {
+        bots.put(bot.getClusterKey(), bot);
+        bot.setCluster(this);
+    }
+
+    // false - чат свой, обрабатывать здесь. Если владелец недоступен, обновление обрабатывается
+    // здесь же: сессия будет неполной, но пользователь получит ответ
+    boolean forward(MyBot bot, long chatId, Update update) {
+        Members current = members;
+        String owner = current.ring.owner(chatId);
+        if (chatId == 0 || owner == null || owner.equals(nodeId)) {
+            return false;
+        }
+        Integer ownerPort = current.ports.get(owner);
+        if (!forwarder.submit(chatId, queued -> send(bot, owner, ownerPort, update))) {
+            forwardFailed.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private void send(MyBot bot, String owner, int ownerPort, Update update) {
+        try {
+            post(ownerPort, "/cluster/update/" + bot.getClusterKey(), MAPPER.writeValueAsBytes(update));
+            forwarded.increment();
+        } catch (IOException e) {
+            forwardFailed.increment();
+            BotLog.warn("cluster", 0, "Узел " + owner + " недоступен, обновление обработано здесь: " + e);
+            bot.receive(update);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void post(int targetPort, String path, byte[] body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + targetPort + path))
+                .timeout(Duration.ofSeconds(5))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IOException(path + ": HTTP " + response.statusCode());
+        }
+    }
+
+    private void handleUpdate(HttpExchange exchange) throws IOException {
+        MyBot bot = bots.get(lastSegment(exchange));
+        if (bot == null) {
+            respond(exchange, 404);
+            return;
+        }
+        Update update;
+        try (InputStream in = exchange.getRequestBody()) {
+            update = MAPPER.readValue(in, Update.class);
+        }
+        received.increment();
+        // Узел уходит: чат уже принадлежит другому, обновление идет дальше
+        if (!leaving || !forward(bot, MyBot.chatIdOf(update), update)) {
+            bot.receive(update);
+        }
+        respond(exchange, 200);
+    }
+
+    // Тело: записи (chatId, длина, сессия) до конца потока
+    private void handleSessions(HttpExchange exchange) throws IOException {
+        MyBot bot = bots.get(lastSegment(exchange));
+        if (bot == null) {
+            respond(exchange, 404);
+            return;
+        }
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        int sessions = 0;
+        while (in.available() > 0) {
+            long chatId = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            adopt(bot, chatId, data);
+            sessions++;
+        }
+        adopted.add(sessions);
+        respond(exchange, 200);
+    }
+
+    private static void adopt(MyBot bot, long chatId, byte[] data) {
+        Runnable install = () -> {
+            try {
+                bot.installSession(chatId, data);
+            } catch (IOException | RuntimeException e) {
+                BotLog.error("cluster", "Не удалось принять сессию чата " + chatId, e);
+            }
+        };
+        if (!bot.runInChat(chatId, install)) {
+            BotLog.warn("cluster", chatId, "Очередь обработчиков переполнена, сессия принята вне очереди");
+            install.run();
+        }
+    }
+
+    private static String lastSegment(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static void respond(HttpExchange exchange, int status) throws IOException {
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
+    }
+
+    // Поток кластера: свой файл, состав, опрашивающий узел, перенос сессий
+    private void heartbeat() {
+        if (leaving) {
+            return;
+        }
+        try {
+            writeNodeFile();
+            Map<String, Integer> live = readLiveNodes();
+            if (!live.equals(members.ports)) {
+                BotLog.info("cluster", "Узел " + nodeId + ": состав кластера " + new TreeSet<>(live.keySet()));
+                members = new Members(live);
+                rebalanceNeeded = true;
+            }
+            boolean lowest = nodeId.equals(Collections.min(live.keySet()));
+            if (lowest != leader) {
+                leader = lowest;
+                listener.onLeadershipChanged(lowest);
+            }
+            if (rebalanceNeeded) {
+                rebalanceNeeded = !handOffAll(members);
+            }
+        } catch (IOException | RuntimeException e) {
+            BotLog.error("cluster", "Ошибка в потоке кластера", e);
+        }
+    }
+
+    private void writeNodeFile() throws IOException {
+        File target = new File(dir, nodeId + SUFFIX);
+        File tmp = new File(dir, nodeId + SUFFIX + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(("port=" + port + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Map<String, Integer> readLiveNodes() {
+        Map<String, Integer> live = new HashMap<>();
+        live.put(nodeId, port);
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return live;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            if (now - file.lastModified() > EXPIRE_MILLIS) {
+                continue;
+            }
+            String id = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+            try {
+                String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+                if (content.startsWith("port=")) {
+                    live.put(id, Integer.parseInt(content.substring(5)));
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Файл переписывается прямо сейчас - узел учтется на следующем шаге
+            }
+        }
+        return live;
+    }
+
+    // Сессии чатов, у которых теперь другой владелец; false - часть не передана, повторить позже
+    private boolean handOffAll(Members target) {
+        boolean complete = true;
+        for (MyBot bot : bots.values()) {
+            Map<String, List<Long>> moving = new HashMap<>();
+            for (Long chatId : bot.sessionChats()) {
+                String owner = target.ring.owner(chatId);
+                if (owner != null && !owner.equals(nodeId)) {
+                    moving.computeIfAbsent(owner, k -> new ArrayList<>()).add(chatId);
+                }
+            }
+            for (Map.Entry<String, List<Long>> entry : moving.entrySet()) {
+                complete &= handOff(bot, entry.getKey(), target.ports.get(entry.getKey()), entry.getValue());
+            }
+        }
+        return complete;
+    }
+
+    // Сессии снимаются в шардах своих чатов (там их меняют обработчики) и уходят одним запросом
+    private boolean handOff(MyBot bot, String owner, int ownerPort, List<Long> chats) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        Map<Long, byte[]> taken = new LinkedHashMap<>();
+        boolean[] closed = {false};
+        CountDownLatch done = new CountDownLatch(chats.size());
+        boolean complete = true;
+        for (Long chatId : chats) {
+            boolean queued = bot.runInChat(chatId, () -> {
+                try {
+                    synchronized (taken) {
+                        if (closed[0]) {
+                            return;
+                        }
+                        byte[] data = bot.removeSession(chatId);
+                        if (data != null) {
+                            out.writeLong(chatId);
+                            out.writeInt(data.length);
+                            out.write(data);
+                            taken.put(chatId, data);
+                        }
+                    }
+                } catch (IOException e) {
+                    BotLog.error("cluster", "Не удалось сохранить сессию чата " + chatId, e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            if (!queued) {
+                done.countDown();
+                complete = false;
+            }
+        }
+        byte[] body;
+        Map<Long, byte[]> sent;
+        try {
+            complete &= done.await(HANDOFF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            complete = false;
+        }
+        synchronized (taken) {
+            closed[0] = true;
+            body = buffer.toByteArray();
+            sent = new LinkedHashMap<>(taken);
+        }
+        if (sent.isEmpty()) {
+            return complete;
+        }
+        try {
+            post(ownerPort, "/cluster/sessions/" + bot.getClusterKey(), body);
+            handedOff.add(sent.size());
+            BotLog.info("cluster", "Передано сессий узлу " + owner + ": " + sent.size());
+            return complete;
+        } catch (IOException | InterruptedException e) {
+            // Владелец не принял: сессии возвращаются, попытка повторится на следующем шаге
+            BotLog.warn("cluster", 0, "Узел " + owner + " не принял сессии: " + e);
+            sent.forEach((chatId, data) -> adopt(bot, chatId, data));
+            return false;
+        }
+    }
+
+    // Плавный уход: узел убирает свой файл, отдает все сессии оставшимся и дальше только пересылает
+    void leave() {
+        leaving = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(HANDOFF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        new File(dir, nodeId + SUFFIX).delete();
+        if (leader) {
+            leader = false;
+            listener.onLeadershipChanged(false);
+        }
+        Map<String, Integer> rest = new HashMap<>(members.ports);
+        rest.remove(nodeId);
+        if (!rest.isEmpty()) {
+            Members remaining = new Members(rest);
+            members = remaining;
+            handOffAll(remaining);
+        }
+        forwarder.shutdown();
+        server.stop(0);
+    }
+
+    String getNodeId() { return nodeId; }
+    int getPort() { return port; }
+    int size() { return members.ports.size(); }
+    long getForwarded() { return forwarded.sum(); }
+    long getReceived() { return received.sum(); }
+    long getForwardFailed() { return forwardFailed.sum(); }
+    long getHandedOff() { return handedOff.sum(); }
+    long getAdopted() { return adopted.sum(); }
+}
@@ -0,0 +1,302 @@
+package com.example.telegrambot;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Рекомендации "с этой моделью также добавляют в избранное".
+// Счетчики совместных добавлений хранятся по парам номеров моделей в примитивных таблицах
+// и обновляются при каждом изменении избранного. Фоновая задача периодически строит
+// для каждой модели топ похожих, поэтому показ карточки только читает готовый массив.
+// Число пар ограничено: при переполнении выбрасываются пары с наименьшими счетчиками
+final class CoFavoriteRecommender {
+
+    private static final int SEGMENTS = 16;
+    // С одной моделью в паре учитывается не больше стольких избранных пользователя
+    private static final int MAX_FAVORITES_PAIRED = 64;
+    private static final int MAX_MODELS = 1 << 20;
+
+    private final int topN;
+    private final int maxPairsPerSegment;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    private volatile Snapshot snapshot = new Snapshot(new String[1], new int[0], 0);
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder pruned = new LongAdder();
+    private final LongAdder recomputeNanos = new LongAdder();
+
+    // Готовые списки: similar[id * topN + i], 0 - пусто
+    private static final class Snapshot {
+        final String[] names;
+        final int[] similar;
+        final int topN;
+
+        Snapshot(String[] names, int[] similar, int topN) {
+            this.names = names;
+            this.similar = similar;
+            this.topN = topN;
+        }
+    }
+
+    CoFavoriteRecommender(int maxPairs, int topN) {
+        this.topN = topN;
+        this.maxPairsPerSegment = Math.max(16, maxPairs / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(64);
+        }
+        names.add(null); // номер 0 зарезервирован под пустой слот
+    }
+
+    // Периодический пересчет; periodMillis <= 0 - только вручную через recompute()
+    CoFavoriteRecommender start(long periodMillis) {
+        if (periodMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "recommendations");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::recompute, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    // others - избранное пользователя до добавления model
+    void onFavoriteAdded(String model, Collection<String> others) {
+        update(model, others, 1);
+    }
+
+    // others - избранное пользователя после удаления model
+    void onFavoriteRemoved(String model, Collection<String> others) {
+        update(model, others, -1);
+    }
+
+    List<String> similar(String model, int limit) {
+        Snapshot current = snapshot;
+        Integer id = ids.get(model);
+        if (id == null || (long) (id + 1) * current.topN > current.similar.length) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<>(Math.min(limit, current.topN));
+        for (int i = 0; i < current.topN && result.size() < limit; i++) {
+            int other = current.similar[id * current.topN + i];
+            if (other == 0) {
+                break;
+            }
+            result.add(current.names[other]);
+        }
+        return result;
+    }
+
+    int pairs() {
+        int pairs = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                pairs += segment.size;
+            }
+        }
+        return pairs;
+    }
+
+    long getPruned() { return pruned.sum(); }
+    double getRecomputeSeconds() { return recomputeNanos.sum() / 1e9; }
+
+    // Пересчет топа похожих для всех моделей по текущим счетчикам
+    void recompute() {
+        long started = System.nanoTime();
+        String[] nameTable;
+        synchronized (names) {
+            nameTable = names.toArray(new String[0]);
+        }
+        int models = nameTable.length;
+        int[] best = new int[models * topN];
+        int[] bestCount = new int[models * topN];
+
+        for (Segment segment : segments) {
+            long[] keys;
+            int[] counts;
+            synchronized (segment) {
+                keys = segment.keys.clone();
+                counts = segment.counts.clone();
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == 0 || counts[i] <= 0) {
+                    continue;
+                }
+                int a = (int) (keys[i] >>> 32);
+                int b = (int) keys[i];
+                if (a < models && b < models) {
+                    offer(best, bestCount, a, b, counts[i]);
+                    offer(best, bestCount, b, a, counts[i]);
+                }
+            }
+        }
+        snapshot = new Snapshot(nameTable, best, topN);
+        recomputeNanos.add(System.nanoTime() - started);
+    }
+
+    // Вставка в отсортированный по убыванию счетчика список модели owner
+    private void offer(int[] best, int[] bestCount, int owner, int other, int count) {
+        int base = owner * topN;
+        int last = base + topN - 1;
+        if (best[last] != 0 && (bestCount[last] > count || (bestCount[last] == count && best[last] < other))) {
+            return;
+        }
+        int pos = last;
+        while (pos > base && (best[pos - 1] == 0 || bestCount[pos - 1] < count
+                || (bestCount[pos - 1] == count && best[pos - 1] > other))) {
+            best[pos] = best[pos - 1];
+            bestCount[pos] = bestCount[pos - 1];
+            pos--;
+        }
+        best[pos] = other;
+        bestCount[pos] = count;
+    }
+
+    private void update(String model, Collection<String> others, int delta) {
+        int id = idOf(model);
+        if (id == 0) {
+            return;
+        }
+        int paired = 0;
+        for (String other : others) {
+            if (paired++ == MAX_FAVORITES_PAIRED) {
+                break;
+            }
+            int otherId = idOf(other);
+            if (otherId == 0 || otherId == id) {
+                continue;
+            }
+            long key = id < otherId ? ((long) id << 32) | otherId : ((long) otherId << 32) | id;
+            long h = mix(key);
+            segments[(int) (h >>> 60)].add(key, h, delta);
+        }
+    }
+
+    private int idOf(String model) {
+        Integer id = ids.get(model);
+        if (id != null) {
+            return id;
+        }
+        synchronized (names) {
+            if (names.size() >= MAX_MODELS) {
+                return 0;
+            }
+            return ids.computeIfAbsent(model, k -> {
+                names.add(k);
+                return names.size() - 1;
+            });
+        }
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private final class Segment {
+        long[] keys;
+        int[] counts;
+        int size;
+
+        Segment(int capacity) {
+            keys = new long[capacity];
+            counts = new int[capacity];
+        }
+
+        synchronized void add(long key, long hash, int delta) {
+            int slot = find(key, hash);
+            if (keys[slot] != key) {
+                // Удаление пары, которой нет в таблице (например, после очистки), ничего не меняет
+                if (delta < 0) {
+                    return;
+                }
+                if (size + 1 > maxPairsPerSegment) {
+                    prune();
+                } else if ((size + 1) * 2 > keys.length) {
+                    rebuild(keys.length * 2, 0);
+                }
+                slot = find(key, hash);
+                keys[slot] = key;
+                size++;
+            }
+            counts[slot] = Math.max(0, counts[slot] + delta);
+        }
+
+        private int find(long key, long hash) {
+            int mask = keys.length - 1;
+            int slot = (int) hash & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Порог - наименьший, при котором остается не больше половины сегмента: редкие пары уходят первыми.
+        // Один проход строит гистограмму счетчиков, второй (rebuild) выбрасывает пары не выше порога
+        private void prune() {
+            int target = maxPairsPerSegment / 2;
+            // Счетчики не меньше size попадают в последнюю ячейку
+            int cap = size;
+            int[] histogram = new int[cap + 1];
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    histogram[Math.min(counts[i], cap)]++;
+                }
+            }
+            int floor;
+            if (histogram[cap] > target) {
+                // Крупных счетчиков больше половины: порог - среди них
+                int[] large = new int[histogram[cap]];
+                int n = 0;
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != 0 && counts[i] >= cap) {
+                        large[n++] = counts[i];
+                    }
+                }
+                Arrays.sort(large);
+                floor = large[large.length - 1 - target];
+            } else {
+                // above - число пар со счетчиком больше floor
+                int above = histogram[cap];
+                floor = cap - 1;
+                while (floor > 1 && above + histogram[floor] <= target) {
+                    above += histogram[floor];
+                    floor--;
+                }
+            }
+            int before = size;
+            rebuild(keys.length, Math.max(1, floor));
+            pruned.add(before - size);
+        }
+
+        // Перестроение без пар со счетчиком не выше floor (нулевые пары выбрасываются всегда)
+        private void rebuild(int capacity, int floor) {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new long[capacity];
+            counts = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0 && oldCounts[i] > floor) {
+                    int slot = find(oldKeys[i], mix(oldKeys[i]));
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                    size++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.telegrambot;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Замер памяти и процессорного времени обработчиков по счетчикам потока (ThreadMXBean).
+// Включается настройкой; меряется каждый sampleEvery-й вызов, чтобы держать накладные расходы
+// на уровне десятков наносекунд на обновление. Результаты пишутся в BotMetrics рядом с задержками
+final class HandlerProfiler {
+
+    private final com.sun.management.ThreadMXBean allocations;
+    private final ThreadMXBean cpu;
+    private final int sampleEvery;
+
+    private HandlerProfiler(com.sun.management.ThreadMXBean allocations, ThreadMXBean cpu, int sampleEvery) {
+        this.allocations = allocations;
+        this.cpu = cpu;
+        this.sampleEvery = sampleEvery;
+    }
+
+    // null, если JVM не умеет считать выделения или время CPU потока
+    static HandlerProfiler create(int sampleEvery) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean extended = (com.sun.management.ThreadMXBean) bean;
+        if (!extended.isThreadAllocatedMemorySupported() || !bean.isCurrentThreadCpuTimeSupported()) {
+            return null;
+        }
+        extended.setThreadAllocatedMemoryEnabled(true);
+        bean.setThreadCpuTimeEnabled(true);
+        return new HandlerProfiler(extended, bean, Math.max(1, sampleEvery));
+    }
+
+    boolean shouldSample() {
+        return sampleEvery == 1 || ThreadLocalRandom.current().nextInt(sampleEvery) == 0;
+    }
+
+    long allocatedBytes() {
+        return allocations.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    long cpuNanos() {
+        return cpu.getCurrentThreadCpuTime();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.telegrambot;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Консистентное хеширование чатов по узлам: у каждого узла VIRTUAL_NODES точек на кольце,
+// чат принадлежит узлу первой точки по часовой стрелке от хеша chatId. При добавлении
+// или уходе узла переезжают только чаты его точек (~1/N всех). Неизменяемый
+final class HashRing {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+
+    HashRing(Collection<String> nodes) {
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            long base = hash(node);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                points.put(mix(base + i * 0x9E3779B97F4A7C15L), node);
+            }
+        }
+    }
+
+    // null - кольцо пустое
+    String owner(long chatId) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(mix(chatId));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    Set<String> nodes() {
+        return nodes;
+    }
+
+    // FNV-1a по байтам имени узла
+    private static long hash(String node) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : node.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    // Финализатор splitmix64: соседние chatId расходятся по всему кольцу
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.telegrambot;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Гистограмма задержек в стиле HDR: логарифмические октавы по 16 линейных корзин,
+// значения в микросекундах, относительная погрешность около 6%
+final class LatencyHistogram {
+
+    private static final int LINEAR = 32;
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 42;
+    private static final int BUCKETS = LINEAR + (MAX_EXP - 4) * SUB;
+
+    // Границы корзин для экспорта в Prometheus, в секундах
+    static final double[] EXPORT_BOUNDS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+
+    void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    void recordMicros(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sumMicros.add(value);
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getSumSeconds() {
+        return sumMicros.sum() / 1_000_000.0;
+    }
+
+    // Значение (мкс), не меньше которого оказалась доля percentile/100 измерений
+    long valueAtPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(i) - 1;
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    // Кумулятивные счетчики для каждой границы EXPORT_BOUNDS
+    long[] cumulativeCounts() {
+        long[] result = new long[EXPORT_BOUNDS.length];
+        long seen = 0;
+        int bound = 0;
+        for (int i = 0; i < BUCKETS && bound < EXPORT_BOUNDS.length; i++) {
+            long upperMicros = upperBound(i);
+            while (bound < EXPORT_BOUNDS.length && upperMicros > EXPORT_BOUNDS[bound] * 1_000_000) {
+                result[bound++] = seen;
+            }
+            seen += counts.get(i);
+        }
+        while (bound < EXPORT_BOUNDS.length) {
+            result[bound++] = seen;
+        }
+        return result;
+    }
+
+    private static int indexOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        if (exp >= MAX_EXP) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (exp - 5) * SUB + sub;
+    }
+
+    // Исключающая верхняя граница корзины, мкс
+    private static long upperBound(int index) {
+        if (index < LINEAR) {
+            return index + 1;
+        }
+        int exp = (index - LINEAR) / SUB + 5;
+        int sub = (index - LINEAR) % SUB;
+        return (long) (SUB + sub + 1) << (exp - SUB_BITS);
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.telegrambot;
+
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.User;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Нагрузочный тест: поднимает заглушку Bot API, направляет на нее бота и гоняет синтетические
+// сценарии из множества виртуальных чатов. Каждый чат ждет ответа перед следующим шагом.
+//
+// mvn -q exec:java -Dexec.mainClass=com.example.telegrambot.LoadTestHarness \
+//     -Dexec.args="chats=500 duration=30 mix=mixed latencyMs=20 jitterMs=10 rate429=0.01 models=10000"
+public class LoadTestHarness {
+
+    private static final AtomicInteger UPDATE_IDS = new AtomicInteger();
+    private static final AtomicInteger MESSAGE_IDS = new AtomicInteger();
+
+    private final Map<String, String> options;
+    private final Map<Long, Semaphore> responses = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    LoadTestHarness(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        new LoadTestHarness(options).run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        int chats = intOption("chats", 200);
+        int durationSeconds = intOption("duration", 30);
+        int models = intOption("models", 0);
+        String mix = options.getOrDefault("mix", "mixed");
+
+        if (models > 0) {
+            MyBotService.load(CarCatalog.synthetic(models, 42));
+        }
+
+        StubTelegramApi stub = new StubTelegramApi(0, intOption("stubThreads", 32)).start();
+        stub.setLatency(intOption("latencyMs", 0) * 1000L, intOption("jitterMs", 0) * 1000L);
+        stub.setTooManyRequestsRate(Double.parseDouble(options.getOrDefault("rate429", "0")));
+        stub.setListener((method, chatId, status, body) -> {
+            if (status != 200) {
+                failed.increment();
+            }
+            Semaphore semaphore = responses.get(chatId);
+            if (semaphore != null) {
+                semaphore.release();
+            }
+        });
+
+        BotConfig config = new BotConfig();
+        config.setToken("load-test");
+        config.setApiUrl(stub.getApiUrl());
+        // Виртуальные пользователи не должны упираться в защиту от флуда
+        config.setRateLimitBurst(intOption("burst", 1_000_000));
+        config.setRateLimitPerSecond(intOption("perSecond", 1_000_000));
+        config.setRecordFile(options.get("record"));
+        config.setProfileSampleEvery(intOption("profile", 0));
+        MyBot bot = new MyBot(config);
+
+        System.out.printf("Нагрузка: %d чатов, %d с, сценарий %s, каталог %s%n",
+                chats, durationSeconds, mix, models > 0 ? models + " моделей" : "встроенный");
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+        List<Thread> users = new ArrayList<>();
+        for (int i = 1; i <= chats; i++) {
+            long chatId = i;
+            responses.put(chatId, new Semaphore(0));
+            Thread user = new Thread(() -> virtualUser(bot, chatId, mix, deadline), "vu-" + i);
+            user.setDaemon(true);
+            users.add(user);
+        }
+        long started = System.nanoTime();
+        users.forEach(Thread::start);
+        for (Thread user : users) {
+            user.join();
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        System.out.printf("Запросов: %d, таймаутов: %d, ошибок API: %d (429: %d)%n",
+                completed.sum(), timeouts.sum(), failed.sum(), stub.getTooManyRequests());
+        System.out.printf("Пропускная способность: %.1f обновлений/с%n", completed.sum() / seconds);
+        System.out.printf("Задержка p50=%.2f мс p99=%.2f мс p999=%.2f мс%n",
+                latency.valueAtPercentile(50) / 1000.0,
+                latency.valueAtPercentile(99) / 1000.0,
+                latency.valueAtPercentile(99.9) / 1000.0);
+        System.out.println(bot.getHandlerStats());
+        System.out.println(bot.getOutboundStats());
+        if (intOption("profile", 0) > 0) {
+            printHandlerCosts(bot);
+        }
+
+        bot.onClosing();
+        stub.stop();
+    }
+
+    // Средние байты и время CPU на замеренный вызов по обработчикам
+    private static void printHandlerCosts(MyBot bot) {
+        StringBuilder out = new StringBuilder();
+        bot.getMetrics().writeTo(out);
+        Map<String, double[]> costs = new TreeMap<>();
+        String[] names = {"bot_handler_profiled_calls_total", "bot_handler_allocated_bytes_total",
+                "bot_handler_cpu_seconds_total"};
+        for (String line : out.toString().split("\n")) {
+            for (int i = 0; i < names.length; i++) {
+                if (line.startsWith(names[i] + "{")) {
+                    String labels = line.substring(names[i].length(), line.lastIndexOf(' '));
+                    double value = Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+                    costs.computeIfAbsent(labels, k -> new double[names.length])[i] = value;
+                }
+            }
+        }
+        costs.forEach((labels, c) -> System.out.printf("%-60s %8.0f вызовов %10.0f Б/вызов %8.1f мкс CPU/вызов%n",
+                labels, c[0], c[1] / c[0], c[2] * 1e6 / c[0]));
+    }
+
+    private void virtualUser(MyBot bot, long chatId, String mix, long deadline) {
+        Random random = new Random(chatId);
+        Semaphore semaphore = responses.get(chatId);
+        while (System.nanoTime() < deadline) {
+            for (Update update : scenario(mix, chatId, random)) {
+                long sent = System.nanoTime();
+                bot.onUpdateReceived(update);
+                try {
+                    if (semaphore.tryAcquire(5, TimeUnit.SECONDS)) {
+                        latency.recordNanos(System.nanoTime() - sent);
+                        completed.increment();
+                    } else {
+                        timeouts.increment();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Один проход сценария: последовательность обновлений, на каждое бот отвечает одним вызовом API
+    static List<Update> scenario(String mix, long chatId, Random random) {
+        if (mix.equals("mixed")) {
+            String[] kinds = {"search", "browse", "browse", "quiz", "favorites"};
+            mix = kinds[random.nextInt(kinds.length)];
+        }
+
+        List<String> brands = MyBotService.getAllBrands();
+        String brand = brands.get(random.nextInt(brands.size()));
+        List<String> categories = new ArrayList<>(MyBotService.getCarCategories(brand).keySet());
+        String category = categories.get(random.nextInt(categories.size()));
+        List<String> models = MyBotService.getAvailableModels(brand, category);
+        String model = models.get(random.nextInt(models.size()));
+
+        switch (mix) {
+            case "search":
+                return Arrays.asList(
+                        text(chatId, "/search"),
+                        text(chatId, model.substring(0, Math.min(3, model.length()))));
+            case "quiz":
+                return Arrays.asList(
+                        text(chatId, "/quiz"),
+                        callback(chatId, "quiz_0_" + MyBotService.getCatalog().getQuizBank().answerOf(0)));
+            case "favorites":
+                return Arrays.asList(
+                        callback(chatId, "favorite_" + model),
+                        text(chatId, "/favorites"),
+                        text(chatId, "/stats"));
+            default:
+                return Arrays.asList(
+                        text(chatId, "/brands"),
+                        callback(chatId, "brand_" + brand),
+                        callback(chatId, "category_" + category),
+                        callback(chatId, "page_" + brand + "_" + category + "_1"),
+                        callback(chatId, "model_" + model));
+        }
+    }
+
+    static Update text(long chatId, String text) {
+        Update update = new Update();
+        update.setUpdateId(UPDATE_IDS.incrementAndGet());
+        update.setMessage(message(chatId, text));
+        return update;
+    }
+
+    static Update callback(long chatId, String data) {
+        CallbackQuery query = new CallbackQuery();
+        query.setId(String.valueOf(UPDATE_IDS.get()));
+        query.setFrom(new User(chatId, "user" + chatId, false));
+        query.setMessage(message(chatId, "🤖"));
+        query.setData(data);
+
+        Update update = new Update();
+        update.setUpdateId(UPDATE_IDS.incrementAndGet());
+        update.setCallbackQuery(query);
+        return update;
+    }
+
+    private static Message message(long chatId, String text) {
+        Message message = new Message();
+        message.setMessageId(MESSAGE_IDS.incrementAndGet());
+        message.setChat(new Chat(chatId, "private"));
+        message.setFrom(new User(chatId, "user" + chatId, false));
+        message.setDate((int) (System.currentTimeMillis() / 1000));
+        message.setText(text);
+        return message;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+}
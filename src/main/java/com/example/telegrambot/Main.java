@@ -1,21 +1,229 @@
 package com.example.telegrambot;
 
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.GetUpdates;
+import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 public class Main {
     public static void main(String[] args) {
+        // До main: запуск JVM и загрузка классов, сокращается архивом CDS
+        long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        int warmupSeconds = Integer.parseInt(System.getenv().getOrDefault("BOT_WARMUP_SECONDS", "5"));
+        long catalogStarted = System.nanoTime();
+        // Каталог и индексы строятся при первом обращении к MyBotService
+        int models = MyBotService.getCatalog().getSpecs().size();
+        System.out.printf("📚 Каталог: %d моделей за %d мс%n", models,
+                (System.nanoTime() - catalogStarted) / 1_000_000);
+
+        // --warmup-only: только прогрев и выход, для записи архива CDS (-XX:ArchiveClassesAtExit)
+        if (Arrays.asList(args).contains("--warmup-only")) {
+            warmUp(new BotRuntime(), Math.max(warmupSeconds, 1));
+            reportReady(null, jvmStartMillis);
+            System.exit(0);
+        }
+
+        List<BotConfig> configs;
         try {
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(new MyBot());
-            System.out.println("✅ Бот успешно запущен!");
-            System.out.println("🤖 Бот готов к работе!");
-        } catch (TelegramApiException e) {
+            configs = loadConfigs();
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("❌ Ошибка в настройках ботов: " + e.getMessage());
+            return;
+        }
+        // Каталог, индексы, кэш отрисовки и потоки общие; сессии и ограничения частоты у каждого бота свои
+        BotRuntime runtime = new BotRuntime(Math.max(BotRuntime.DEFAULT_SENDERS, 4 * configs.size()));
+        List<MyBot> bots = new ArrayList<>();
+        String clusterDir = System.getenv("BOT_CLUSTER_DIR");
+        try {
+            for (BotConfig config : configs) {
+                bots.add(new MyBot(config, runtime));
+            }
+            // К Telegram - только после прогрева: первые обновления не должны ждать JIT
+            warmUp(runtime, warmupSeconds);
+            if (clusterDir != null && !clusterDir.isEmpty()) {
+                startCluster(new File(clusterDir), runtime, bots);
+            } else {
+                TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+                for (MyBot bot : bots) {
+                    botsApi.registerBot(bot);
+                    System.out.println("✅ Бот " + bot.getBotUsername() + " успешно запущен!");
+                }
+            }
+            bots.forEach(MyBot::resumeBroadcast);
+            reportReady(runtime, jvmStartMillis);
+            startMetrics(runtime, bots);
+        } catch (TelegramApiException | IOException e) {
             e.printStackTrace();
             System.err.println("❌ Ошибка запуска бота: " + e.getMessage());
         }
     }
-}
 
+    // Узел кластера: BOT_NODE_ID (по умолчанию node-<pid>), порт для других узлов BOT_CLUSTER_PORT
+    // (0 - любой). Обновления у Telegram запрашивает только опрашивающий узел и пересылает владельцам чатов
+    private static void startCluster(File dir, BotRuntime runtime, List<MyBot> bots) throws IOException {
+        String nodeId = System.getenv().getOrDefault("BOT_NODE_ID", "node-" + ProcessHandle.current().pid());
+        int port = Integer.parseInt(System.getenv().getOrDefault("BOT_CLUSTER_PORT", "0"));
+        // Каждый раз новый опрос с offset 0: получит все, что не подтвердил прежний опрашивающий узел
+        List<Polling> polling = new ArrayList<>(Collections.nCopies(bots.size(), null));
+        ClusterNode node = ClusterNode.start(nodeId, dir, port, leader -> {
+            for (int i = 0; i < bots.size(); i++) {
+                Polling current = polling.get(i);
+                if (leader && current == null) {
+                    MyBot bot = bots.get(i);
+                    try {
+                        bot.clearWebhook();
+                    } catch (TelegramApiException e) {
+                        BotLog.warn("cluster", 0, "Не удалось снять вебхук: " + e.getMessage());
+                    }
+                    polling.set(i, new Polling(bot));
+                } else if (!leader && current != null) {
+                    polling.set(i, null);
+                    current.stop();
+                }
+            }
+            BotLog.info("cluster", leader ? "Узел опрашивает Telegram" : "Узел больше не опрашивает Telegram");
+        });
+        bots.forEach(node::register);
+
+        BotMetrics metrics = runtime.getMetrics();
+        metrics.gauge("bot_cluster_nodes", "Живых узлов кластера", node::size);
+        metrics.counter("bot_cluster_forwarded_total", "Обновлений, переданных владельцам чатов",
+                node::getForwarded);
+        metrics.counter("bot_cluster_received_total", "Обновлений, полученных от других узлов", node::getReceived);
+        metrics.counter("bot_cluster_forward_failed_total", "Обновлений, обработанных здесь из-за недоступности владельца",
+                node::getForwardFailed);
+        metrics.counter("bot_cluster_sessions_handed_off_total", "Сессий, переданных другим узлам",
+                node::getHandedOff);
+        metrics.counter("bot_cluster_sessions_adopted_total", "Сессий, принятых от других узлов", node::getAdopted);
+
+        node.join();
+        // Остановка процесса (SIGTERM): сессии передаются оставшимся узлам
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            node.leave();
+            bots.forEach(MyBot::onClosing);
+        }, "cluster-leave"));
+        System.out.println("🔗 Узел " + nodeId + " в кластере " + dir + ", порт " + node.getPort());
+    }
+
+    // BOT_WARMUP_SECONDS (по умолчанию 5, 0 - без прогрева)
+    private static void warmUp(BotRuntime runtime, int seconds) {
+        if (seconds <= 0) {
+            return;
+        }
+        try {
+            String result = new StartupWarmup(runtime, 4 * Runtime.getRuntime().availableProcessors(),
+                    seconds * 1000L).run();
+            System.out.println("🔥 Прогрев: " + result);
+        } catch (IOException e) {
+            System.err.println("⚠️ Прогрев пропущен: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Время от запуска JVM до готовности принимать обновления; runtime == null - без метрики
+    private static void reportReady(BotRuntime runtime, long jvmStartMillis) {
+        long readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        if (runtime != null) {
+            runtime.getMetrics().gauge("bot_ready_seconds", "Секунд от запуска JVM до готовности",
+                    () -> readyMillis / 1000.0);
+        }
+        System.out.printf("🤖 Бот готов к работе за %.1f с (запуск JVM %.1f с)%n",
+                readyMillis / 1000.0, jvmStartMillis / 1000.0);
+    }
+
+    // Опрос Telegram одним ботом, пока узел опрашивающий. Не DefaultBotSession: ее поток чтения держит
+    // монитор сессии весь длинный опрос, и stop() ждет его, пока сессия продолжает опрашивать и подтверждать
+    // offset - обновления обрабатываются дважды или пропадают у остановленного узла. Здесь ответ опроса,
+    // пришедший после stop(), отбрасывается и не подтверждается: эти обновления получит новый опрашивающий
+    // узел. Бот при этом не закрывается - узел продолжает обрабатывать свои чаты
+    private static final class Polling {
+        private static final int LIMIT = 100;
+        private static final int TIMEOUT_SECONDS = 50;
+        private static final long RETRY_MILLIS = 1000;
+
+        private final MyBot bot;
+        private volatile boolean stopped;
+
+        Polling(MyBot bot) {
+            this.bot = bot;
+            Thread thread = new Thread(this::run, "polling-" + bot.getClusterKey());
+            thread.setDaemon(true);
+            thread.start();
+        }
 
+        // Не ждет текущий опрос: поток кластера не должен пропускать шаги
+        void stop() {
+            stopped = true;
+        }
+
+        private void run() {
+            int offset = 0;
+            // Обновления до confirmed Telegram уже не отдаст: этот offset был в успешном запросе
+            int confirmed = 0;
+            while (!stopped) {
+                try {
+                    List<Update> updates = bot.execute(GetUpdates.builder()
+                            .offset(offset).limit(LIMIT).timeout(TIMEOUT_SECONDS).build());
+                    confirmed = offset;
+                    if (stopped || updates.isEmpty()) {
+                        continue;
+                    }
+                    offset = updates.get(updates.size() - 1).getUpdateId() + 1;
+                    bot.onUpdatesReceived(updates);
+                } catch (TelegramApiException | RuntimeException e) {
+                    // Поток опроса не должен умирать, пока узел считает себя опрашивающим
+                    BotLog.error("cluster", "Ошибка опроса Telegram", e);
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(RETRY_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        break;
+                    }
+                }
+            }
+            // Обработанное подтверждается сразу, не дожидаясь следующего опроса, которого уже не будет:
+            // иначе новый опрашивающий узел начнет с offset 0 и обработает эти обновления еще раз.
+            // Telegram принимает limit от 1; то, что вернет этот запрос, не подтверждено и не обрабатывается
+            if (offset != confirmed) {
+                try {
+                    bot.execute(GetUpdates.builder().offset(offset).limit(1).timeout(0).build());
+                } catch (TelegramApiException | RuntimeException e) {
+                    BotLog.error("cluster", "Не удалось подтвердить обработанные обновления", e);
+                }
+            }
+        }
+    }
+
+    // BOT_CONFIG - файл с несколькими ботами, иначе один бот из переменных окружения
+    private static List<BotConfig> loadConfigs() throws IOException {
+        String file = System.getenv("BOT_CONFIG");
+        if (file == null || file.isEmpty()) {
+            return Collections.singletonList(BotConfig.fromEnv());
+        }
+        return BotConfig.load(new File(file));
+    }
+
+    private static void startMetrics(BotRuntime runtime, List<MyBot> bots) {
+        int port = Integer.parseInt(System.getenv().getOrDefault("METRICS_PORT", "9400"));
+        try {
+            MetricsServer server = MetricsServer.start(port);
+            server.register(runtime.getMetrics());
+            for (MyBot bot : bots) {
+                server.register(bot.getMetrics());
+            }
+            System.out.println("📈 Метрики: http://127.0.0.1:" + port + "/metrics");
+        } catch (IOException e) {
+            System.err.println("⚠️ Не удалось запустить сервер метрик: " + e.getMessage());
+        }
+    }
+}
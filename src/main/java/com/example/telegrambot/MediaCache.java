@@ -0,0 +1,205 @@
+package com.example.telegrambot;
+
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Фотографии моделей: файл загружается в Telegram один раз, дальше фото отправляется по file_id.
+// file_id хранятся в file_ids.tsv рядом с картинками (строка "модель<TAB>file_id", последняя побеждает).
+// file_id действует только для загрузившего бота, поэтому у каждого бота процесса свой файл file_ids.<бот>.tsv.
+// Одновременные загрузки одной картинки схлопываются: остальные ждут первую и берут ее file_id
+final class MediaCache {
+
+    // Отправка фото в конкретный чат; результат - file_id отправленного фото
+    interface Delivery {
+        CompletableFuture<String> send(InputFile photo);
+    }
+
+    private static final String[] EXTENSIONS = {".jpg", ".jpeg", ".png"};
+
+    // Картинки по имени файла без расширения; каталог читается один раз при запуске
+    private final Map<String, File> images = new HashMap<>();
+    private final Map<String, String> fileIds = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> uploads = new ConcurrentHashMap<>();
+    private final File storeFile;
+    private final Writer store;
+
+    private final LongAdder uploaded = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+
+    // bot - имя бота, если их в процессе несколько, иначе null
+    MediaCache(File dir, String bot) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName().toLowerCase(Locale.ROOT);
+                for (String extension : EXTENSIONS) {
+                    if (name.endsWith(extension) && file.isFile()) {
+                        images.put(file.getName().substring(0, name.length() - extension.length()), file);
+                    }
+                }
+            }
+        }
+        this.storeFile = new File(dir, bot == null ? "file_ids.tsv" : "file_ids." + bot + ".tsv");
+        if (storeFile.isFile()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(storeFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        fileIds.put(line.substring(0, tab), line.substring(tab + 1));
+                    }
+                }
+            }
+        }
+        this.store = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(storeFile, true), StandardCharsets.UTF_8));
+    }
+
+    // Имя файла картинки: название модели, где все кроме букв, цифр, точки и дефиса заменено на "_"
+    static String fileName(String model) {
+        StringBuilder name = new StringBuilder(model.length());
+        for (int i = 0; i < model.length(); i++) {
+            char c = model.charAt(i);
+            name.append(Character.isLetterOrDigit(c) || c == '.' || c == '-' ? c : '_');
+        }
+        return name.toString();
+    }
+
+    boolean hasImage(String model) {
+        return fileIds.containsKey(model) || images.containsKey(fileName(model));
+    }
+
+    // Отправка фото модели через delivery: по file_id, иначе загрузка файла (одна на модель)
+    CompletableFuture<String> deliver(String model, Delivery delivery) {
+        String cached = fileIds.get(model);
+        if (cached == null) {
+            return upload(model, delivery);
+        }
+        reused.increment();
+        return delivery.send(new InputFile(cached))
+                .handle((id, error) -> {
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(id);
+                    }
+                    // Telegram отверг file_id (например, сменился токен бота) - загружаем заново;
+                    // параллельные отправки того же фото присоединятся к этой загрузке
+                    if (isRejected(error) && images.containsKey(fileName(model))) {
+                        fileIds.remove(model, cached);
+                        return upload(model, delivery);
+                    }
+                    return CompletableFuture.<String>failedFuture(error);
+                })
+                .thenCompose(future -> future);
+    }
+
+    private CompletableFuture<String> upload(String model, Delivery delivery) {
+        File image = images.get(fileName(model));
+        if (image == null) {
+            return CompletableFuture.failedFuture(new FileNotFoundException(model));
+        }
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = uploads.putIfAbsent(model, mine);
+        if (running != null) {
+            deduplicated.increment();
+            // Ждем идущую загрузку; если она не удалась - загружаем сами
+            return running
+                    .handle((id, error) -> delivery.send(
+                            id != null ? new InputFile(id) : new InputFile(image, image.getName())))
+                    .thenCompose(future -> future);
+        }
+        // Загрузка могла завершиться между проверкой кэша и постановкой своей
+        String cached = fileIds.get(model);
+        if (cached != null) {
+            uploads.remove(model, mine);
+            mine.complete(cached);
+            return delivery.send(new InputFile(cached));
+        }
+
+        uploaded.increment();
+        delivery.send(new InputFile(image, image.getName())).whenComplete((id, error) -> {
+            if (id != null) {
+                remember(model, id);
+            }
+            uploads.remove(model, mine);
+            if (error != null) {
+                mine.completeExceptionally(error);
+            } else {
+                mine.complete(id);
+            }
+        });
+        return mine;
+    }
+
+    private static boolean isRejected(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof TelegramApiRequestException)) {
+            return false;
+        }
+        Integer code = ((TelegramApiRequestException) cause).getErrorCode();
+        return code != null && code == 400;
+    }
+
+    private void remember(String model, String fileId) {
+        fileIds.put(model, fileId);
+        synchronized (store) {
+            try {
+                store.write(model + "\t" + fileId + "\n");
+                store.flush();
+            } catch (IOException e) {
+                BotLog.error("media", "Не удалось сохранить file_id для " + model, e);
+            }
+        }
+    }
+
+    // Фоновая загрузка популярных моделей по одной, чтобы первые просмотры не ждали загрузки
+    void preload(List<String> models, Delivery delivery) {
+        Thread thread = new Thread(() -> {
+            int loaded = 0;
+            for (String model : models) {
+                if (fileIds.containsKey(model) || !images.containsKey(fileName(model))) {
+                    continue;
+                }
+                try {
+                    deliver(model, delivery).get(30, TimeUnit.SECONDS);
+                    loaded++;
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    BotLog.warn("media", 0, "Не удалось загрузить фото " + model + ": " + e.getMessage());
+                }
+            }
+            BotLog.info("media", "Предзагружено фото: " + loaded);
+        }, "media-preload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int cachedIds() { return fileIds.size(); }
+    long getUploaded() { return uploaded.sum(); }
+    long getReused() { return reused.sum(); }
+    long getDeduplicated() { return deduplicated.sum(); }
+
+    void close() {
+        synchronized (store) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                BotLog.error("media", "Ошибка закрытия " + storeFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.telegrambot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+
+// Сессии только в памяти: теряются при перезапуске. Для тестовых стендов и воспроизведения трафика
+final class MemorySessionStore implements SessionStore {
+
+    private final Map<Long, UserSession> sessions = new ConcurrentHashMap<>();
+
+    @Override
+    public UserSession get(long chatId) {
+        return sessions.get(chatId);
+    }
+
+    @Override
+    public UserSession getOrCreate(long chatId, LongFunction<UserSession> factory) {
+        return sessions.computeIfAbsent(chatId, factory::apply);
+    }
+
+    @Override
+    public CompletableFuture<UserSession> getAsync(long chatId) {
+        return CompletableFuture.completedFuture(sessions.get(chatId));
+    }
+
+    @Override
+    public Map<Long, UserSession> getAll(Collection<Long> chatIds) {
+        Map<Long, UserSession> result = new HashMap<>();
+        for (Long chatId : chatIds) {
+            UserSession session = sessions.get(chatId);
+            if (session != null) {
+                result.put(chatId, session);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public UserSession compute(long chatId, BiFunction<Long, UserSession, UserSession> function) {
+        return sessions.compute(chatId, function);
+    }
+
+    @Override
+    public void put(long chatId, UserSession session) {
+        sessions.put(chatId, session);
+    }
+
+    @Override
+    public void putAll(Map<Long, UserSession> batch) {
+        sessions.putAll(batch);
+    }
+
+    @Override
+    public UserSession remove(long chatId) {
+        return sessions.remove(chatId);
+    }
+
+    @Override
+    public List<Long> chats() {
+        return new ArrayList<>(sessions.keySet());
+    }
+
+    @Override
+    public void forEachSession(BiConsumer<Long, UserSession> action) {
+        sessions.forEach(action);
+    }
+
+    @Override
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() {
+    }
+}
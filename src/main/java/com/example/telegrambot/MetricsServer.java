@@ -0,0 +1,83 @@
+package com.example.telegrambot;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+// Локальный HTTP-эндпоинт /metrics в текстовом формате Prometheus
+final class MetricsServer {
+
+    private final HttpServer server;
+    private final List<BotMetrics> sources = new CopyOnWriteArrayList<>();
+
+    private MetricsServer(HttpServer server) {
+        this.server = server;
+    }
+
+    static MetricsServer start(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        MetricsServer metricsServer = new MetricsServer(http);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = metricsServer.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        http.start();
+        return metricsServer;
+    }
+
+    void register(BotMetrics metrics) {
+        sources.add(metrics);
+    }
+
+    // Источников несколько (общие компоненты и каждый бот), а формат требует, чтобы серии семейства
+    // шли подряд под одним HELP/TYPE: строки собираются по семействам в порядке первого появления
+    String scrape() {
+        Map<String, StringBuilder> families = new LinkedHashMap<>();
+        for (BotMetrics source : sources) {
+            StringBuilder text = new StringBuilder(8192);
+            source.writeTo(text);
+            StringBuilder family = null;
+            for (String line : text.toString().split("\n")) {
+                if (line.startsWith("# HELP ")) {
+                    int end = line.indexOf(' ', 7);
+                    String name = end < 0 ? line.substring(7) : line.substring(7, end);
+                    family = families.get(name);
+                    if (family == null) {
+                        family = new StringBuilder().append(line).append('\n');
+                        families.put(name, family);
+                    }
+                } else if (line.startsWith("# TYPE ")) {
+                    if (family != null && family.indexOf("\n# TYPE ") < 0) {
+                        family.append(line).append('\n');
+                    }
+                } else if (family != null && !line.isEmpty()) {
+                    family.append(line).append('\n');
+                }
+            }
+        }
+        StringBuilder out = new StringBuilder(8192);
+        families.values().forEach(out::append);
+        return out.toString();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+}
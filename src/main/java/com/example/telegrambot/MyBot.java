@@ -1,8 +1,12 @@
 package com.example.telegrambot;
 
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardMarkup;
@@ -10,169 +14,641 @@ import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKe
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.KeyboardRow;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public class MyBot extends TelegramLongPollingBot {
 
-    // Хранилище пользовательских данных
-    private final Map<Long, UserSession> userSessions = new ConcurrentHashMap<>();
-    private final Random random = new Random();
+    // Данные кнопки случайной категории в кэшированной клавиатуре, подменяются для каждого пользователя
+    private static final String RANDOM_CATEGORY = "category_*";
+    // Больше моделей не помещается в одно сообщение
+    private static final int MAX_COMPARED = 5;
+    private static final String BUSY_TEXT = "⏳ Бот сейчас перегружен. Попробуйте через минуту.";
+    // Моделей из топа, чьи фото загружаются при запуске
+    private static final int PRELOAD_PHOTOS = 20;
+    // Ограничение Telegram на подпись к фото
+    private static final int MAX_CAPTION = 1024;
+    // Шаг обратного отсчета в вопросе викторины
+    private static final long QUIZ_COUNTDOWN_STEP_MILLIS = 10_000;
+    // Размер сегмента журнала аналитики
+    private static final long ANALYTICS_SEGMENT_BYTES = 16L << 20;
+    // Пауза перед заполнением рейтинга после передачи сессий: переезд чатов идет пачкой, перебор - один раз
+    private static final long LEADERBOARD_REFILL_DELAY_MILLIS = 1000;
+
+    // Хранилище пользовательских данных: на диске с горячим уровнем в памяти или только в памяти
+    private final SessionStore sessions;
+    // Случайность детерминирована по чату: сид бота + chatId (для воспроизведения записанного трафика)
+    private final long randomSeed;
+    private final TrafficRecorder recorder;
+
+    // Потоки, таймеры и кэш отрисовки, общие с другими ботами процесса
+    private final BotRuntime runtime;
+    private final PipelineStage handlers;
+    private final BotMetrics metrics;
+    private final OutboundQueue outbound;
+    private final TimerWheel timers;
+    private final OverloadController overload;
+    private final RenderCache renderCache;
+
+    private final BotConfig config;
+    // Защита от флуда: по умолчанию 8 запросов подряд, затем 1 в секунду; после 15 отказов подряд - тишина на минуту
+    private final ChatRateLimiter rateLimiter;
+    private final QuizLeaderboard leaderboard = new QuizLeaderboard();
+    // Заполнение набора лучших уже запланировано
+    private final AtomicBoolean leaderboardRefill = new AtomicBoolean();
+    // null - профилирование обработчиков выключено
+    private final HandlerProfiler profiler;
+    // До 1 млн пар моделей, по 5 похожих на каждую
+    private final CoFavoriteRecommender recommender = new CoFavoriteRecommender(1 << 20, 5);
+    // null - рассылки выключены (не задан каталог прогресса)
+    private final Broadcaster broadcaster;
+    // null - карточки моделей без фото
+    private final MediaCache media;
+    // null - события аналитики не пишутся
+    private final AnalyticsLog analytics;
+    // null - бот работает один; иначе чаты распределены по узлам кластера
+    private volatile ClusterNode cluster;
+
+    public MyBot() {
+        this(BotConfig.fromEnv());
+    }
+
+    // Отдельный бот со своими потоками
+    public MyBot(BotConfig config) {
+        this(config, new BotRuntime());
+    }
+
+    MyBot(BotConfig config, BotRuntime runtime) {
+        super(optionsFor(config), config.getToken());
+        this.config = config;
+        this.runtime = runtime;
+        runtime.attach();
+        this.handlers = runtime.getHandlers();
+        this.timers = runtime.getTimers();
+        this.overload = runtime.getOverload();
+        this.renderCache = runtime.getRenderCache();
+        this.metrics = new BotMetrics(config.getName());
+        this.outbound = new OutboundQueue(runtime.getOutbound(), metrics);
+        this.rateLimiter = new ChatRateLimiter(config.getRateLimitBurst(), config.getRateLimitPerSecond(),
+                15, 60_000);
+        this.randomSeed = config.getRandomSeed() != null ? config.getRandomSeed() : System.nanoTime();
+        this.recorder = openRecorder(config.getRecordFile());
+        TieredSessionStore tiered = openSessions(config);
+        this.sessions = tiered != null ? tiered : new MemorySessionStore();
+        restoreLeaderboard();
+        recommender.start(config.getRecommendationsRefreshMillis());
+        this.profiler = config.getProfileSampleEvery() > 0
+                ? HandlerProfiler.create(config.getProfileSampleEvery()) : null;
+        this.broadcaster = config.getBroadcastDir() != null
+                ? new Broadcaster(new File(config.getBroadcastDir()), config.getBroadcastPerSecond(),
+                        this::sendBroadcastMessage, outbound.getStats(), this::reportBroadcast)
+                : null;
+
+        metrics.gauge("bot_sessions", "Сессий в хранилище", sessions::size);
+        if (tiered != null) {
+            metrics.gauge("bot_sessions_hot", "Сессий в памяти", tiered::hotSize);
+            metrics.gauge("bot_sessions_pending", "Измененных сессий, ожидающих записи", tiered::pendingSize);
+            metrics.counter("bot_sessions_hits_total", "Обращений к сессиям в памяти", tiered::getHits);
+            metrics.counter("bot_sessions_loads_total", "Промахов памяти, прочитанных с диска", tiered::getLoads);
+            metrics.counter("bot_sessions_unchanged_total", "Сохранений без изменений, не записанных на диск",
+                    tiered::getUnchanged);
+            metrics.counter("bot_sessions_written_total", "Сессий, записанных на диск", tiered::getWritten);
+            metrics.counter("bot_sessions_batches_total", "Пакетов записи сессий", tiered::getBatches);
+            metrics.counter("bot_sessions_evicted_total", "Сессий, вытесненных из памяти", tiered::getEvicted);
+            metrics.counter("bot_sessions_write_errors_total", "Неудачных записей сессий", tiered::getWriteErrors);
+            metrics.gauge("bot_sessions_log_bytes", "Размер журнала сессий", tiered::getLogBytes);
+            metrics.gauge("bot_sessions_live_bytes", "Актуальных данных в журнале сессий", tiered::getLiveBytes);
+        }
+        metrics.gauge("bot_quiz_players", "Игроков в рейтинге викторины", leaderboard::players);
+        metrics.gauge("bot_recommendation_pairs", "Пар моделей в счетчиках рекомендаций", recommender::pairs);
+        metrics.counter("bot_recommendation_pruned_total", "Редких пар, удаленных при переполнении",
+                recommender::getPruned);
+        metrics.counter("bot_recommendation_recompute_seconds_total", "Время пересчета рекомендаций",
+                recommender::getRecomputeSeconds);
+        if (broadcaster != null) {
+            metrics.counter("bot_broadcast_sent_total", "Доставленных сообщений рассылки", broadcaster::getSent);
+            metrics.counter("bot_broadcast_blocked_total", "Получателей рассылки, заблокировавших бота",
+                    broadcaster::getBlocked);
+            metrics.counter("bot_broadcast_failed_total", "Ошибок отправки рассылки", broadcaster::getFailed);
+            metrics.gauge("bot_broadcast_remaining", "Получателей до конца текущей рассылки",
+                    broadcaster::getRemaining);
+        }
+        this.media = openMedia(config.getMediaDir(), config.getName());
+        if (media != null) {
+            metrics.counter("bot_media_uploads_total", "Загрузок фото в Telegram", media::getUploaded);
+            metrics.counter("bot_media_reused_total", "Отправок фото по сохраненному file_id", media::getReused);
+            metrics.counter("bot_media_deduplicated_total", "Отправок, дождавшихся чужой загрузки того же фото",
+                    media::getDeduplicated);
+            metrics.gauge("bot_media_file_ids", "Сохраненных file_id", media::cachedIds);
+            if (config.getMediaChatId() != null) {
+                long mediaChat = config.getMediaChatId();
+                media.preload(MyBotService.getTopModels(PRELOAD_PHOTOS),
+                        photo -> sendPhoto(mediaChat, photo, null, null));
+            }
+        }
+        this.analytics = openAnalytics(config.getAnalyticsDir());
+        if (analytics != null) {
+            metrics.counter("bot_analytics_events_total", "Событий аналитики записано", analytics::getWritten);
+            metrics.counter("bot_analytics_dropped_total", "Событий аналитики отброшено при переполнении",
+                    analytics::getDropped);
+            metrics.counter("bot_analytics_segments_total", "Открытых сегментов аналитики", analytics::getSegments);
+        }
+        metrics.gauge("bot_rate_limiter_chats", "Чатов в таблице ограничения частоты", rateLimiter::size);
+    }
+
+    // null - каталог не задан или не открылся: сессии только в памяти
+    private static TieredSessionStore openSessions(BotConfig config) {
+        if (config.getSessionDir() == null) {
+            return null;
+        }
+        try {
+            // Сессии с таймерами остаются в памяти: таймер находит сессию по ссылке
+            return new TieredSessionStore(new File(config.getSessionDir()), config.getSessionCacheSize(), 200,
+                    session -> session.getModeTimeout() != null || session.getQuizTimeout() != null);
+        } catch (IOException e) {
+            BotLog.error("sessions", "Не удалось открыть каталог сессий " + config.getSessionDir()
+                    + ", сессии будут только в памяти", e);
+            return null;
+        }
+    }
+
+    // Рейтинг викторины только в памяти: после перезапуска собирается заново по сессиям с диска
+    private void restoreLeaderboard() {
+        try {
+            sessions.forEachSession((chatId, session) -> {
+                if (session.getCorrectAnswers() > 0) {
+                    leaderboard.onScore(chatId, 0, session.getCorrectAnswers());
+                }
+            });
+        } catch (IllegalStateException e) {
+            BotLog.error("sessions", "Не удалось восстановить рейтинг викторины", e);
+        }
+    }
+
+    private static AnalyticsLog openAnalytics(String dir) {
+        if (dir == null) {
+            return null;
+        }
+        try {
+            return new AnalyticsLog(new File(dir), ANALYTICS_SEGMENT_BYTES);
+        } catch (IOException e) {
+            BotLog.error("analytics", "Не удалось открыть каталог аналитики " + dir, e);
+            return null;
+        }
+    }
+
+    private static TrafficRecorder openRecorder(String file) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new TrafficRecorder(new File(file));
+        } catch (IOException e) {
+            BotLog.error("recorder", "Не удалось открыть журнал трафика " + file, e);
+            return null;
+        }
+    }
+
+    private static MediaCache openMedia(String dir, String bot) {
+        if (dir == null) {
+            return null;
+        }
+        try {
+            return new MediaCache(new File(dir), bot);
+        } catch (IOException e) {
+            BotLog.error("media", "Не удалось открыть каталог фото " + dir, e);
+            return null;
+        }
+    }
+
+    private static DefaultBotOptions optionsFor(BotConfig config) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setBaseUrl(config.getApiUrl());
+        return options;
+    }
 
     @Override
     public void onUpdateReceived(Update update) {
+        // Чат другого узла кластера: обновление уходит владельцу
+        ClusterNode node = cluster;
+        if (node != null && node.forward(this, chatIdOf(update), update)) {
+            return;
+        }
+        receive(update);
+    }
+
+    // Обработка на этом узле: и свои обновления, и пересланные другими узлами
+    void receive(Update update) {
+        if (recorder != null) {
+            recorder.recordInbound(update);
+        }
+        long chatId = chatIdOf(update);
+        BotMetrics.UpdateType type = typeOf(update);
+        if (broadcaster != null) {
+            broadcaster.onActivity(chatId);
+        }
+        // Проверяется до поиска сессии и любой отрисовки
+        switch (rateLimiter.acquire(chatId)) {
+            case ALLOW:
+                // Сессия с диска читается, пока обновление ждет в очереди шарда
+                if (chatId != 0) {
+                    sessions.getAsync(chatId);
+                }
+                break;
+            case THROTTLE:
+                metrics.onUpdate(type, BotMetrics.Outcome.THROTTLED);
+                notifyThrottled(chatId, "🐢 Слишком много запросов. Подождите немного.");
+                return;
+            case MUTE:
+                metrics.onUpdate(type, BotMetrics.Outcome.THROTTLED);
+                notifyThrottled(chatId, "🔇 Слишком много запросов. Бот не будет отвечать вам минуту.");
+                return;
+            default:
+                metrics.onUpdate(type, BotMetrics.Outcome.THROTTLED);
+                return;
+        }
+
+        if (!handlers.submit(chatId, queued -> processUpdate(update, type, queued))) {
+            metrics.onUpdate(type, BotMetrics.Outcome.REJECTED);
+            // Очередь переполнена: отвечаем коротким сообщением вместо обработки
+            if (chatId != 0) {
+                SendMessage busy = new SendMessage(String.valueOf(chatId), BUSY_TEXT);
+                record("sendMessage", chatId, busy);
+                outbound.trySend(chatId, "sendMessage", () -> execute(busy));
+            }
+        }
+    }
+
+    private void notifyThrottled(long chatId, String text) {
+        SendMessage message = new SendMessage(String.valueOf(chatId), text);
+        record("sendMessage", chatId, message);
+        outbound.trySend(chatId, "sendMessage", () -> execute(message));
+    }
+
+    private void processUpdate(Update update, BotMetrics.UpdateType type, long queuedNanos) {
         try {
+            overload.onDequeue(queuedNanos);
+            Integer sentAt = update.hasMessage() ? update.getMessage().getDate() : null;
+            if (overload.isStale(queuedNanos, sentAt)) {
+                metrics.onUpdate(type, BotMetrics.Outcome.STALE);
+                return;
+            }
+
             if (update.hasMessage() && update.getMessage().hasText()) {
                 handleMessage(update);
             } else if (update.hasCallbackQuery()) {
                 handleCallbackQuery(update);
             }
+            metrics.onUpdate(type, BotMetrics.Outcome.HANDLED);
         } catch (Exception e) {
-            System.err.println("Ошибка обработки обновления: " + e.getMessage());
-            e.printStackTrace();
+            metrics.onUpdate(type, BotMetrics.Outcome.ERROR);
+            metrics.onError("update");
+            logFailure("update", chatIdOf(update), type, queuedNanos, "Ошибка обработки обновления", e);
         }
     }
 
+    // Исключение обработчика с маршрутом и временем до сбоя; стек не собирается, он есть у причины
+    private static final class HandlerFailure extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final Route route;
+        final long elapsedNanos;
+
+        HandlerFailure(Route route, long elapsedNanos, RuntimeException cause) {
+            super(cause.getMessage(), cause, false, false);
+            this.route = route;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    private static void logFailure(String event, long chatId, BotMetrics.UpdateType type, long queuedNanos,
+                                   String message, Exception e) {
+        if (e instanceof HandlerFailure) {
+            HandlerFailure failure = (HandlerFailure) e;
+            long latency = failure.elapsedNanos + Math.max(0, queuedNanos);
+            BotLog.error(event, chatId, type, failure.route.getHandler(), latency, message, failure.getCause());
+        } else {
+            BotLog.error(event, chatId, type, null, queuedNanos, message, e);
+        }
+    }
+
+    private static BotMetrics.UpdateType typeOf(Update update) {
+        if (update.hasMessage()) {
+            return BotMetrics.UpdateType.MESSAGE;
+        }
+        return update.hasCallbackQuery() ? BotMetrics.UpdateType.CALLBACK : BotMetrics.UpdateType.OTHER;
+    }
+
+    void setCluster(ClusterNode cluster) {
+        this.cluster = cluster;
+    }
+
+    // Продолжение прерванной рассылки; зовет Main, когда бот уже подключен к Telegram,
+    // а не конструктор: бот для прогрева, нагрузки или бенчмарка не должен рассылать настоящим пользователям
+    void resumeBroadcast() {
+        if (broadcaster != null) {
+            broadcaster.resume();
+        }
+    }
+
+    // Имя бота в адресах кластера
+    String getClusterKey() {
+        return config.getName() != null ? config.getName() : "bot";
+    }
+
+    List<Long> sessionChats() {
+        return sessions.chats();
+    }
+
+    // Задача в шарде обработчиков чата: там же, где меняется его сессия
+    boolean runInChat(long chatId, Runnable job) {
+        return handlers.submit(chatId, queued -> job.run());
+    }
+
+    // Вызывается в шарде чата. Сессия удаляется и возвращается сериализованной; null - сессии нет
+    byte[] removeSession(long chatId) {
+        UserSession session = sessions.remove(chatId);
+        if (session == null) {
+            return null;
+        }
+        session.setModeTimeout(null);
+        session.setQuizTimeout(null);
+        if (leaderboard.remove(chatId, session.getCorrectAnswers())) {
+            scheduleLeaderboardRefill();
+        }
+        return session.toBytes();
+    }
+
+    // Набор лучших потерял игрока: отдельный поток перебирает сессии и отбирает лучших,
+    // а в набор они попадают в шардах своих чатов, чтобы не обогнать передачу сессии или новый ответ
+    private void scheduleLeaderboardRefill() {
+        if (!leaderboardRefill.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                Thread.sleep(LEADERBOARD_REFILL_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            leaderboardRefill.set(false);
+            QuizLeaderboard.Candidates candidates = new QuizLeaderboard.Candidates();
+            try {
+                sessions.forEachSession((chatId, session) -> candidates.add(chatId, session.getCorrectAnswers()));
+            } catch (IllegalStateException e) {
+                BotLog.error("sessions", "Не удалось заполнить рейтинг викторины", e);
+                return;
+            }
+            for (QuizLeaderboard.Entry entry : candidates.entries()) {
+                boolean queued = runInChat(entry.chatId, () -> {
+                    UserSession session = sessions.get(entry.chatId);
+                    if (session != null) {
+                        leaderboard.offer(entry.chatId, session.getCorrectAnswers());
+                    }
+                });
+                if (!queued) {
+                    // Шард переполнен: еще один перебор позже
+                    scheduleLeaderboardRefill();
+                }
+            }
+        }, "leaderboard-refill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Вызывается в шарде чата: сессия, переданная прежним владельцем чата
+    void installSession(long chatId, byte[] data) throws IOException {
+        UserSession received = UserSession.fromBytes(data);
+        sessions.compute(chatId, (id, current) -> {
+            if (current != null) {
+                int oldScore = current.getCorrectAnswers();
+                current.merge(received);
+                if (current.getCorrectAnswers() != oldScore) {
+                    leaderboard.onScore(chatId, oldScore, current.getCorrectAnswers());
+                }
+                return current;
+            }
+            if (received.getCorrectAnswers() > 0) {
+                leaderboard.onScore(chatId, 0, received.getCorrectAnswers());
+            }
+            // Таймеры не переносятся: режим ввода отсчитывается заново
+            rearmMode(chatId, received);
+            return received;
+        });
+    }
+
+    private UserSession sessionFor(Long chatId) {
+        UserSession session = sessions.getOrCreate(chatId, k -> new UserSession(randomSeed ^ k));
+        // Сессия с диска (после перезапуска) приходит без таймеров
+        rearmMode(chatId, session);
+        return session;
+    }
+
+    private void rearmMode(Long chatId, UserSession session) {
+        if (session.getMode() != UserSession.Mode.NORMAL && session.getModeTimeout() == null) {
+            enterMode(chatId, session, session.getMode());
+        }
+    }
+
+    static long chatIdOf(Update update) {
+        if (update.hasMessage()) {
+            return update.getMessage().getChatId();
+        }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return 0;
+    }
+
     private void handleMessage(Update update) {
         String messageText = update.getMessage().getText();
         Long chatId = update.getMessage().getChatId();
-        UserSession session = userSessions.computeIfAbsent(chatId, k -> new UserSession());
+        UserSession session = sessionFor(chatId);
 
-        if (messageText.startsWith("/")) {
-            handleCommand(messageText, chatId, session);
-        } else {
-            handleTextMessage(messageText, chatId, session);
+        Route route = messageText.startsWith("/")
+                ? Route.ofCommand(messageText)
+                : Route.ofText(messageText, session.getMode());
+        dispatch(route, messageText, chatId, null, session);
+    }
+
+    private void handleCallbackQuery(Update update) {
+        String callbackData = update.getCallbackQuery().getData();
+        Long chatId = update.getCallbackQuery().getMessage().getChatId();
+        Integer messageId = update.getCallbackQuery().getMessage().getMessageId();
+        UserSession session = sessionFor(chatId);
+
+        try {
+            dispatch(Route.ofCallback(callbackData), callbackData, chatId, messageId, session);
+        } catch (Exception e) {
+            metrics.onError("callback");
+            logFailure("callback", chatId, BotMetrics.UpdateType.CALLBACK, -1, "Ошибка обработки callback", e);
+
+            sendErrorMessage(chatId);
+        }
+    }
+
+    // Вызов обработчика по маршруту; при перегрузке тяжелые обработчики упрощаются или отклоняются
+    private void dispatch(Route route, String input, Long chatId, Integer messageId, UserSession session) {
+        boolean degraded = route.isExpensive() && config.isOverloadControl() && overload.isOverloaded();
+        if (degraded) {
+            overload.onDegraded();
+        }
+
+        boolean profiled = profiler != null && profiler.shouldSample();
+        long allocatedBefore = profiled ? profiler.allocatedBytes() : 0;
+        long cpuBefore = profiled ? profiler.cpuNanos() : 0;
+        long started = System.nanoTime();
+        try {
+            invoke(route, degraded, input, chatId, messageId, session);
+        } catch (RuntimeException e) {
+            throw new HandlerFailure(route, System.nanoTime() - started, e);
+        } finally {
+            // Измененная сессия возвращается в хранилище, оттуда она попадет на диск
+            sessions.put(chatId, session);
+            metrics.recordHandler(route, System.nanoTime() - started);
+            if (profiled) {
+                metrics.recordHandlerCost(route, profiler.allocatedBytes() - allocatedBefore,
+                        profiler.cpuNanos() - cpuBefore);
+            }
         }
     }
 
-    private void handleCommand(String command, Long chatId, UserSession session) {
-        switch (command) {
-            case "/start":
+    private void invoke(Route route, boolean degraded, String input, Long chatId, Integer messageId,
+                        UserSession session) {
+        switch (route) {
+            case START:
+                track(AnalyticsLog.Type.START, chatId, 0, null, null);
                 session.reset();
                 sendWelcomeMessage(chatId);
                 break;
-            case "/help":
+            case HELP:
                 sendHelpMessage(chatId);
                 break;
-            case "/stats":
-                sendUserStats(chatId, session);
+            case STATS:
+                sendUserStats(chatId, session, degraded);
                 break;
-            case "/search":
-                session.setMode(UserSession.Mode.SEARCH);
+            case SEARCH_PROMPT:
+                enterMode(chatId, session, UserSession.Mode.SEARCH);
                 sendSearchPrompt(chatId);
                 break;
-            case "/compare":
-                session.setMode(UserSession.Mode.COMPARE);
+            case FILTER_PROMPT:
+                enterMode(chatId, session, UserSession.Mode.FILTER);
+                sendFilterPrompt(chatId);
+                break;
+            case FILTER_QUERY:
+                handleFilterQuery(input, chatId, session);
+                enterMode(chatId, session, session.getMode());
+                break;
+            case SEARCH_QUERY:
+                handleSearchQuery(input, chatId, session);
+                enterMode(chatId, session, session.getMode());
+                break;
+            case COMPARE_PROMPT:
+                enterMode(chatId, session, UserSession.Mode.COMPARE);
                 sendComparePrompt(chatId);
                 break;
-            case "/random":
+            case COMPARE_QUERY:
+                if (degraded) {
+                    sendBusyMessage(chatId);
+                } else {
+                    handleCompareQuery(input, chatId, session);
+                }
+                enterMode(chatId, session, session.getMode());
+                break;
+            case RANDOM:
                 sendRandomCar(chatId);
                 break;
-            case "/quiz":
+            case QUIZ:
                 sendCarQuiz(chatId, session);
                 break;
-            case "/favorites":
-                sendFavorites(chatId, session);
+            case QUIZ_ANSWER:
+                handleQuizAnswer(chatId, messageId, input.substring(5), session);
                 break;
-            case "/brands":
-                sendBrandSelection(chatId);
+            case LEADERBOARD:
+                sendLeaderboard(chatId, session);
                 break;
-            case "/categories":
-                if (session.getSelectedBrand() != null) {
-                    sendCategorySelection(chatId, session.getSelectedBrand());
+            case BROADCAST:
+                if (broadcaster != null && config.getAdminChatIds().contains(chatId)) {
+                    handleBroadcast(input.substring("/broadcast".length()).trim(), chatId);
                 } else {
-                    sendTextMessage(chatId, "⚠️ Сначала выберите марку автомобиля!");
+                    sendTextMessage(chatId, "Неизвестная команда. Используйте /help для списка команд.");
                 }
                 break;
-            default:
-                sendTextMessage(chatId, "Неизвестная команда. Используйте /help для списка команд.");
-                break;
-        }
-    }
-
-
-    private void handleTextMessage(String text, Long chatId, UserSession session) {
-        switch (session.getMode()) {
-            case SEARCH:
-                handleSearchQuery(text, chatId, session);
+            case FAVORITES:
+                sendFavorites(chatId, session, degraded);
                 break;
-            case COMPARE:
-                handleCompareQuery(text, chatId, session);
+            case BRANDS:
+                sendBrandSelection(chatId);
                 break;
-            case NORMAL:
-                if (text.equals("🏁 Выбрать марку")) {
+            case CATEGORIES:
+                if (session.getSelectedBrand() != null) {
+                    sendCategorySelection(chatId, session.getSelectedBrand(), session);
+                } else if (messageId != null) {
                     sendBrandSelection(chatId);
-                } else if (text.equals("🔍 Поиск моделей")) {
-                    session.setMode(UserSession.Mode.SEARCH);
-                    sendSearchPrompt(chatId);
-                } else if (text.equals("📊 Статистика")) {
-                    sendUserStats(chatId, session);
-                } else if (text.equals("🎮 Викторина")) {
-                    sendCarQuiz(chatId, session);
-                } else if (text.equals("⭐️ Избранное")) {
-                    sendFavorites(chatId, session);
-                } else if (text.equals("🔄 Случайная модель")) {
-                    sendRandomCar(chatId);
-                } else if (text.equals("🏆 Топ модели")) {
+                } else {
+                    sendTextMessage(chatId, "⚠️ Сначала выберите марку автомобиля!");
+                }
+                break;
+            case TOP_MODELS:
+                if (degraded) {
+                    sendBusyMessage(chatId);
+                } else {
                     sendTopModels(chatId);
-                } else if (text.equals("📈 Категории")) {
-                    sendCategoryStats(chatId);
+                }
+                break;
+            case CATEGORY_STATS:
+                if (degraded) {
+                    sendBusyMessage(chatId);
                 } else {
-                    sendMainMenu(chatId, "Не понимаю ваш запрос. Выберите опцию из меню:");
+                    sendCategoryStats(chatId);
                 }
                 break;
-        }
-    }
-
-    private void handleCallbackQuery(Update update) {
-        String callbackData = update.getCallbackQuery().getData();
-        Long chatId = update.getCallbackQuery().getMessage().getChatId();
-        Integer messageId = update.getCallbackQuery().getMessage().getMessageId();
-        UserSession session = userSessions.computeIfAbsent(chatId, k -> new UserSession());
-
-        try {
-            if (callbackData.startsWith("brand_")) {
-                String brand = callbackData.substring(6);
+            case MAIN_MENU:
+                sendMainMenu(chatId, "Главное меню:");
+                break;
+            case BRAND_SELECTED: {
+                String brand = input.substring(6);
                 session.setSelectedBrand(brand);
                 session.incrementBrandViews(brand);
-                sendCategorySelection(chatId, brand);
-            } else if (callbackData.startsWith("category_")) {
-                String category = callbackData.substring(9);
+                track(AnalyticsLog.Type.BRAND_VIEW, chatId, 0, brand, null);
+                sendCategorySelection(chatId, brand, session);
+                break;
+            }
+            case CATEGORY_SELECTED: {
+                String category = input.substring(9);
                 session.setSelectedCategory(category);
-                sendModelsList(chatId, session.getSelectedBrand(), category, 0);
-            } else if (callbackData.startsWith("model_")) {
-                String model = callbackData.substring(6);
-                sendModelDetails(chatId, session.getSelectedBrand(), model, session);
-            } else if (callbackData.startsWith("favorite_")) {
-                String model = callbackData.substring(9);
-                toggleFavorite(chatId, model, session);
-            } else if (callbackData.startsWith("quiz_")) {
-                handleQuizAnswer(chatId, messageId, callbackData.substring(5), session);
-            } else if (callbackData.startsWith("page_")) {
-                String[] parts = callbackData.substring(5).split("_");
+                sendModelsList(chatId, session.getSelectedBrand(), category, 0, session);
+                break;
+            }
+            case PAGE: {
+                String[] parts = input.substring(5).split("_");
                 String brand = parts[0];
                 String category = parts[1];
                 int page = Integer.parseInt(parts[2]);
-                sendModelsList(chatId, brand, category, page);
-            } else if (callbackData.equals("back_to_brands")) {
-                sendBrandSelection(chatId);
-            } else if (callbackData.equals("back_to_categories")) {
-                if (session.getSelectedBrand() != null) {
-                    sendCategorySelection(chatId, session.getSelectedBrand());
-                } else {
-                    sendBrandSelection(chatId);
-                }
-            } else if (callbackData.equals("restart_quiz")) {
-                sendCarQuiz(chatId, session);
-            } else if (callbackData.equals("main_menu")) {
-                sendMainMenu(chatId, "Главное меню:");
-            } else if (callbackData.equals("next_question")) {
-                sendCarQuiz(chatId, session);
+                sendModelsList(chatId, brand, category, page, session);
+                break;
             }
-        } catch (Exception e) {
-            System.err.println("Ошибка обработки callback: " + e.getMessage());
-
-            sendErrorMessage(chatId);
+            case MODEL_DETAILS: {
+                String model = input.substring(6);
+                track(AnalyticsLog.Type.MODEL_VIEW, chatId, 0, session.getSelectedBrand(), model);
+                sendModelDetails(chatId, session.getSelectedBrand(), model, session);
+                break;
+            }
+            case FAVORITE_TOGGLE:
+                toggleFavorite(chatId, input.substring(9), session);
+                break;
+            case UNKNOWN_COMMAND:
+                sendTextMessage(chatId, "Неизвестная команда. Используйте /help для списка команд.");
+                break;
+            case UNKNOWN_TEXT:
+                sendMainMenu(chatId, "Не понимаю ваш запрос. Выберите опцию из меню:");
+                break;
+            case UNKNOWN_CALLBACK:
+                break;
         }
     }
 
@@ -235,12 +711,11 @@ public class MyBot extends TelegramLongPollingBot {
     }
 
     private void sendBrandSelection(Long chatId) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText("🏁 *Выберите марку автомобиля:*");
-        message.setParseMode("Markdown");
+        String key = RenderCache.key("brands", MyBotService.getCatalog().getVersion());
+        executeMessage(renderCache.get(key, this::buildBrandSelection).toMessage(chatId, RenderedView.NONE));
+    }
 
-        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+    private RenderedView buildBrandSelection() {
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
 
         for (String brand : MyBotService.getAllBrands()) {
@@ -264,23 +739,31 @@ public class MyBot extends TelegramLongPollingBot {
         backRow.add(backButton);
         rows.add(backRow);
 
-        markup.setKeyboard(rows);
-        message.setReplyMarkup(markup);
-
-        executeMessage(message);
+        return RenderedView.of("🏁 *Выберите марку автомобиля:*", rows);
     }
 
-    private void sendCategorySelection(Long chatId, String brand) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
-        message.setText("✅ *" + brand + "*\n" +
-                "📝 " + MyBotService.getCarDescription(brand) + "\n\n" +
-                "👇 *Выберите тип автомобиля:*");
-        message.setParseMode("Markdown");
+    // Кнопка случайной категории выбирается для каждого пользователя поверх общей клавиатуры
+    private void sendCategorySelection(Long chatId, String brand, UserSession session) {
+        String key = RenderCache.key("categories", MyBotService.getCatalog().getVersion(), brand);
+        RenderedView view = renderCache.get(key, () -> buildCategorySelection(brand));
+        List<String> categoryList = new ArrayList<>(MyBotService.getCarCategories(brand).keySet());
+        String random = categoryList.isEmpty() ? null
+                : "category_" + categoryList.get(session.nextRandomInt(categoryList.size()));
+        executeMessage(view.toMessage(chatId, new RenderedView.Overlay() {
+            @Override
+            public String label(String label, String data) {
+                return null;
+            }
 
-        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+            @Override
+            public String data(String label, String data) {
+                return data.equals(RANDOM_CATEGORY) ? random : null;
+            }
+        }));
+    }
 
+    private RenderedView buildCategorySelection(String brand) {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
 
         Map<String, List<String>> categories = MyBotService.getCarCategories(brand);
         List<String> categoryList = new ArrayList<>(categories.keySet());
@@ -307,30 +790,35 @@ public class MyBot extends TelegramLongPollingBot {
 
         InlineKeyboardButton randomButton = new InlineKeyboardButton();
         randomButton.setText("🎲 Случайная категория");
-        randomButton.setCallbackData("category_" +
-                categoryList.get(random.nextInt(categoryList.size())));
+        randomButton.setCallbackData(RANDOM_CATEGORY);
         navRow.add(randomButton);
 
         rows.add(navRow);
 
-        markup.setKeyboard(rows);
-        message.setReplyMarkup(markup);
+        return RenderedView.of("✅ *" + brand + "*\n" +
+                "📝 " + MyBotService.getCarDescription(brand) + "\n\n" +
+                "👇 *Выберите тип автомобиля:*", rows);
+    }
 
-        executeMessage(message);
+    private void sendModelsList(Long chatId, String brand, String category, int page, UserSession session) {
+        executeMessage(renderModelsList(chatId, brand, category, page, session));
     }
 
-    private void sendModelsList(Long chatId, String brand, String category, int page) {
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
+    // Избранные модели отмечаются поверх общей закэшированной страницы
+    SendMessage renderModelsList(Long chatId, String brand, String category, int page, UserSession session) {
+        String key = RenderCache.key("models", MyBotService.getCatalog().getVersion(), brand, category, page);
+        Set<String> favorites = session.getFavorites();
+        return renderCache.get(key, () -> buildModelsList(brand, category, page))
+                .toMessage(chatId, (label, data) -> data.startsWith("favorite_")
+                        && favorites.contains(data.substring(9)) ? "🌟" : null);
+    }
 
+    private RenderedView buildModelsList(String brand, String category, int page) {
         List<String> models = MyBotService.getAvailableModels(brand, category);
 
         if (models.isEmpty()) {
-            message.setText("📋 *" + brand + " - " + category + "*\n\n" +
+            return RenderedView.text("📋 *" + brand + " - " + category + "*\n\n" +
                     "⚠️ Модели не найдены в этой категории.");
-            message.setParseMode("Markdown");
-            executeMessage(message);
-            return;
         }
 
         // Пагинация
@@ -350,10 +838,6 @@ public class MyBot extends TelegramLongPollingBot {
 
         responseText.append("\n📄 Страница ").append(page + 1).append(" из ").append(totalPages);
 
-        message.setText(responseText.toString());
-        message.setParseMode("Markdown");
-
-        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
 
         // Кнопки моделей
@@ -409,33 +893,74 @@ public class MyBot extends TelegramLongPollingBot {
 
         rows.add(navRow);
 
-        markup.setKeyboard(rows);
-        message.setReplyMarkup(markup);
-
-        executeMessage(message);
+        return RenderedView.of(responseText.toString(), rows);
     }
 
+    // С фото, если оно есть и текст помещается в подпись; при ошибке отправки фото - обычная карточка
     private void sendModelDetails(Long chatId, String brand, String model, UserSession session) {
+        SendMessage card = renderModelDetails(chatId, brand, model, session);
+        if (media == null || !media.hasImage(model) || card.getText().length() > MAX_CAPTION) {
+            executeMessage(card);
+            return;
+        }
+        InlineKeyboardMarkup markup = (InlineKeyboardMarkup) card.getReplyMarkup();
+        media.deliver(model, photo -> sendPhoto(chatId, photo, card.getText(), markup))
+                .whenComplete((fileId, error) -> {
+                    if (error != null) {
+                        BotLog.warn("media", chatId, "Фото " + model + " не отправлено: " + error.getMessage());
+                        executeMessage(card);
+                    }
+                });
+    }
+
+    private CompletableFuture<String> sendPhoto(long chatId, InputFile photo, String caption,
+                                                InlineKeyboardMarkup markup) {
+        SendPhoto message = new SendPhoto();
+        message.setChatId(String.valueOf(chatId));
+        message.setPhoto(photo);
+        if (caption != null) {
+            message.setCaption(caption);
+            message.setParseMode("Markdown");
+        }
+        message.setReplyMarkup(markup);
+        record("sendPhoto", chatId, message);
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        boolean queued = outbound.send(chatId, "sendPhoto", () -> execute(message), sent -> {
+            // Telegram возвращает несколько размеров; file_id любого из них отправляет исходное фото
+            List<PhotoSize> sizes = sent.getPhoto();
+            if (sizes == null || sizes.isEmpty()) {
+                result.completeExceptionally(new TelegramApiException("Ответ без фото"));
+            } else {
+                result.complete(sizes.get(sizes.size() - 1).getFileId());
+            }
+        }, result::completeExceptionally);
+        if (!queued) {
+            result.completeExceptionally(new TelegramApiException("Очередь отправки переполнена"));
+        }
+        return result;
+    }
+
+    SendMessage renderModelDetails(Long chatId, String brand, String model, UserSession session) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId.toString());
 
         // Генерация детальной информации
         String description = MyBotService.getModelDescription(brand, model);
-        boolean isMuscleCar = MyBotService.isMuscleCar(model);
-
-        // Генерация случайных характеристик (для демонстрации)
-        int year = 2000 + random.nextInt(25);
-        int horsepower = isMuscleCar ? 400 + random.nextInt(400) : 150 + random.nextInt(250);
-        int price = isMuscleCar ? 50000 + random.nextInt(100000) : 30000 + random.nextInt(50000);
+        SpecStore specs = MyBotService.getCatalog().getSpecs();
+        int id = specs.idOf(model);
+        boolean isMuscleCar = specs.isMuscle(id);
 
         String muscleCarEmoji = isMuscleCar ? "🔥 " : "";
 
         StringBuilder text = new StringBuilder();
         text.append(muscleCarEmoji).append("*").append(model).append("*\n\n");
         text.append("🏭 *Производитель:* ").append(brand).append("\n");
-        text.append("📅 *Год выпуска:* ").append(year).append("\n");
-        text.append("⚡️ *Мощность:* ").append(horsepower).append(" л.с.\n");
-        text.append("💰 *Примерная цена:* $").append(String.format("%,d", price)).append("\n");
+        if (id >= 0) {
+            text.append("📅 *Год выпуска:* ").append(specs.year(id)).append("\n");
+            text.append("⚡️ *Мощность:* ").append(specs.horsepower(id)).append(" л.с.\n");
+            text.append("💰 *Примерная цена:* $").append(String.format("%,d", specs.price(id))).append("\n");
+        }
         text.append("📝 *Описание:* ").append(description).append("\n\n");
 
         if (session.getFavorites().contains(model)) {
@@ -446,6 +971,12 @@ public class MyBot extends TelegramLongPollingBot {
             text.append("🔥 *Это маслкар!*\n");
         }
 
+        List<String> similar = recommender.similar(model, 3);
+        if (!similar.isEmpty()) {
+            text.append("\n👥 *Вместе с ней добавляют в избранное:*\n");
+            similar.forEach(other -> text.append("• ").append(other).append("\n"));
+        }
+
         message.setText(text.toString());
         message.setParseMode("Markdown");
 
@@ -483,52 +1014,98 @@ public class MyBot extends TelegramLongPollingBot {
         markup.setKeyboard(rows);
         message.setReplyMarkup(markup);
 
-        executeMessage(message);
+        return message;
+    }
+
+
+    // Режим ввода с таймаутом: без сообщений сессия сама вернется в обычный режим.
+    // Повторный вызов в том же режиме продлевает таймаут; NORMAL таймера не имеет
+    private void enterMode(Long chatId, UserSession session, UserSession.Mode mode) {
+        session.setMode(mode);
+        if (mode != UserSession.Mode.NORMAL && config.getModeTimeoutMillis() > 0) {
+            session.setModeTimeout(timers.schedule(chatId, config.getModeTimeoutMillis(),
+                    timeout -> expireMode(chatId, mode, timeout)));
+        }
+    }
+
+    // Выполняется в шарде обработчиков чата; устаревший таймер (режим уже сменился) ничего не делает
+    private void expireMode(Long chatId, UserSession.Mode mode, TimerWheel.Timeout timeout) {
+        UserSession session = sessions.get(chatId);
+        if (session == null || session.getModeTimeout() != timeout || session.getMode() != mode) {
+            return;
+        }
+        session.setModeTimeout(null);
+        session.setMode(UserSession.Mode.NORMAL);
+        sessions.put(chatId, session);
     }
 
+    // Событие общей аналитики; в обработчике стоит одной записи в кольцевой буфер
+    private void track(AnalyticsLog.Type type, long chatId, int value, String a, String b) {
+        if (analytics != null) {
+            analytics.record(type, chatId, value, a, b);
+        }
+    }
 
     private void sendCarQuiz(Long chatId, UserSession session) {
-        List<String> questions = Arrays.asList(
-                "Какая модель BMW является самым продаваемым седаном?",
-                "Какой Dodge известен как 'Hellcat'?",
-                "Какая модель BMW имеет обозначение M3?",
-                "Какой Dodge имеет версию 'Demon'?"
-        );
-
-        List<List<String>> answers = Arrays.asList(
-                Arrays.asList("3 Series", "5 Series", "7 Series", "1 Series"),
-                Arrays.asList("Charger", "Challenger", "Durango", "Viper"),
-                Arrays.asList("BMW M3", "BMW X3", "BMW Z4", "BMW i8"),
-                Arrays.asList("Challenger", "Charger", "Ram", "Durango")
-        );
-
-        List<String> correctAnswers = Arrays.asList(
-                "3 Series",
-                "Charger",
-                "BMW M3",
-                "Challenger"
-        );
-
-        int index = random.nextInt(questions.size());
-        session.setCurrentQuizQuestion(questions.get(index));
-        session.setCurrentQuizAnswer(correctAnswers.get(index));
+        CarCatalog catalog = MyBotService.getCatalog();
+        QuizBank bank = catalog.getQuizBank();
+        int question = session.nextQuizQuestion(bank.size(), catalog.getVersion());
+        // Предыдущий вопрос закрыт новым, его отсчет больше не нужен
+        session.setQuizTimeout(null);
+        session.setQuizMessageId(0);
+        if (question < 0) {
+            sendTextMessage(chatId, "😔 В каталоге пока нет моделей для викторины.");
+            return;
+        }
 
+        long limitMillis = config.getQuizTimeLimitSeconds() * 1000L;
         SendMessage message = new SendMessage();
         message.setChatId(chatId.toString());
-        message.setText("🎮 *Автомобильная викторина!*\n\n" +
-                "❓ " + questions.get(index) + "\n\n" +
-                "Выберите правильный ответ:");
+        message.setText(quizText(bank, question, limitMillis));
         message.setParseMode("Markdown");
+        message.setReplyMarkup(quizKeyboard(bank, question));
 
-        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+        if (limitMillis <= 0) {
+            executeMessage(message);
+            return;
+        }
+        long deadline = System.currentTimeMillis() + limitMillis;
+        session.setQuizTimeout(timers.schedule(chatId, Math.min(QUIZ_COUNTDOWN_STEP_MILLIS, limitMillis),
+                timeout -> quizCountdown(chatId, bank, question, deadline, timeout)));
+        // Номер сообщения нужен для правок; запоминается в шарде чата, как и все состояние сессии
+        record("sendMessage", chatId, message);
+        boolean queued = outbound.send(chatId, "sendMessage", () -> execute(message),
+                sent -> handlers.trySubmit(chatId, ignored -> {
+                    UserSession current = sessions.get(chatId);
+                    if (current != null && current.getCurrentQuizId() == question) {
+                        current.setQuizMessageId(sent.getMessageId());
+                    }
+                }), null);
+        if (!queued) {
+            BotLog.warn("outbound_full", chatId, "Очередь отправки переполнена, сообщение отброшено");
+        }
+    }
+
+    private String quizText(QuizBank bank, int question, long leftMillis) {
+        return "🎮 *Автомобильная викторина!*\n\n" +
+                "❓ " + bank.questionText(question) + "\n\n" +
+                (leftMillis > 0 ? "⏱ Осталось секунд: " + (leftMillis + 999) / 1000 + "\n\n" : "") +
+                "Выберите правильный ответ:";
+    }
+
+    private InlineKeyboardMarkup quizKeyboard(QuizBank bank, int question) {
         List<List<InlineKeyboardButton>> rows = new ArrayList<>();
 
-        List<String> answerOptions = answers.get(index);
-        for (String answer : answerOptions) {
+        for (int slot = 0; slot < QuizBank.OPTIONS; slot++) {
+            int option = bank.optionAt(question, slot);
+            if (option < 0) {
+                continue;
+            }
             List<InlineKeyboardButton> row = new ArrayList<>();
             InlineKeyboardButton button = new InlineKeyboardButton();
-            button.setText("🚗 " + answer);
-            button.setCallbackData("quiz_" + answer);
+            button.setText("🚗 " + bank.optionText(question, option));
+            // Ответ проверяется по номерам вопроса и варианта, а не по тексту
+            button.setCallbackData("quiz_" + question + "_" + option);
             row.add(button);
             rows.add(row);
         }
@@ -541,62 +1118,226 @@ public class MyBot extends TelegramLongPollingBot {
         skipRow.add(skipButton);
         rows.add(skipRow);
 
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
         markup.setKeyboard(rows);
-        message.setReplyMarkup(markup);
+        return markup;
+    }
 
-        executeMessage(message);
+    // Кнопки после ответа или истечения времени
+    private InlineKeyboardMarkup quizResultKeyboard() {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+
+        List<InlineKeyboardButton> row = new ArrayList<>();
+        InlineKeyboardButton newQuizButton = new InlineKeyboardButton();
+        newQuizButton.setText("🔄 Новый вопрос");
+        newQuizButton.setCallbackData("next_question");
+        row.add(newQuizButton);
+
+        InlineKeyboardButton menuButton = new InlineKeyboardButton();
+        menuButton.setText("🏠 Главное меню");
+        menuButton.setCallbackData("main_menu");
+        row.add(menuButton);
+
+        rows.add(row);
+
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+        markup.setKeyboard(rows);
+        return markup;
+    }
+
+    // Тик обратного отсчета в шарде чата: правка оставшегося времени или закрытие вопроса
+    private void quizCountdown(Long chatId, QuizBank bank, int question, long deadline, TimerWheel.Timeout timeout) {
+        UserSession session = sessions.get(chatId);
+        if (session == null || session.getQuizTimeout() != timeout || session.getCurrentQuizId() != question) {
+            return;
+        }
+        long left = deadline - System.currentTimeMillis();
+        int messageId = session.getQuizMessageId();
+        EditMessageText edit = new EditMessageText();
+        edit.setChatId(chatId.toString());
+        edit.setParseMode("Markdown");
+
+        if (left > 0) {
+            session.setQuizTimeout(timers.schedule(chatId, Math.min(QUIZ_COUNTDOWN_STEP_MILLIS, left),
+                    next -> quizCountdown(chatId, bank, question, deadline, next)));
+            // Сообщение еще не дошло до Telegram: правка пропускается до следующего тика
+            if (messageId == 0) {
+                return;
+            }
+            edit.setText(quizText(bank, question, left));
+            edit.setReplyMarkup(quizKeyboard(bank, question));
+        } else {
+            session.setQuizTimeout(null);
+            session.completeQuizQuestion(question);
+            sessions.put(chatId, session);
+            track(AnalyticsLog.Type.QUIZ_TIMEOUT, chatId, 0, null, null);
+            String text = "⌛ *Время вышло!*\n\n" +
+                    "Правильный ответ: *" + bank.optionText(question, bank.answerOf(question)) + "*";
+            if (messageId == 0) {
+                SendMessage message = new SendMessage(chatId.toString(), text);
+                message.setParseMode("Markdown");
+                message.setReplyMarkup(quizResultKeyboard());
+                executeMessage(message);
+                return;
+            }
+            edit.setText(text);
+            edit.setReplyMarkup(quizResultKeyboard());
+        }
+        edit.setMessageId(messageId);
+        record("editMessageText", chatId, edit);
+        outbound.send(chatId, "editMessageText", () -> execute(edit), null,
+                e -> BotLog.warn("quiz_timer", chatId, "Не удалось обновить вопрос викторины: " + e.getMessage()));
     }
 
     private void handleQuizAnswer(Long chatId, Integer messageId, String answer, UserSession session) {
-        String correctAnswer = session.getCurrentQuizAnswer();
+        CarCatalog catalog = MyBotService.getCatalog();
+        QuizBank bank = catalog.getQuizBank();
+        int question;
+        int option;
+        try {
+            int separator = answer.indexOf('_');
+            question = Integer.parseInt(answer.substring(0, separator));
+            option = Integer.parseInt(answer.substring(separator + 1));
+        } catch (RuntimeException e) {
+            sendCarQuiz(chatId, session);
+            return;
+        }
+        // Вопрос из старого каталога: номера могли сместиться
+        if (session.getQuizDeckVersion() != catalog.getVersion() || !bank.hasOption(question, option)) {
+            sendCarQuiz(chatId, session);
+            return;
+        }
+
+        // Ответ на текущий вопрос останавливает отсчет
+        if (question == session.getCurrentQuizId()) {
+            session.setQuizTimeout(null);
+        }
+
+        String chosen = bank.optionText(question, option);
+        String correctAnswer = bank.optionText(question, bank.answerOf(question));
 
         EditMessageText editMessage = new EditMessageText();
         editMessage.setChatId(chatId.toString());
         editMessage.setMessageId(messageId);
 
-        if (answer.equals(correctAnswer)) {
+        if (bank.isCorrect(question, option)) {
             editMessage.setText("✅ *Правильно!*\n\n" +
-                    "Вы выбрали правильный ответ: *" + answer + "*\n\n" +
+                    "Вы выбрали правильный ответ: *" + chosen + "*\n\n" +
                     "🎉 Поздравляем!");
-            session.incrementCorrectAnswers();
+            // Повторное нажатие на ту же кнопку не добавляет очков
+            if (session.completeQuizQuestion(question)) {
+                track(AnalyticsLog.Type.QUIZ_ANSWER, chatId, 1, null, null);
+                int oldScore = session.getCorrectAnswers();
+                session.incrementCorrectAnswers();
+                leaderboard.onScore(chatId, oldScore, session.getCorrectAnswers());
+            }
         } else {
             editMessage.setText("❌ *Неправильно!*\n\n" +
-                    "Ваш ответ: " + answer + "\n" +
+                    "Ваш ответ: " + chosen + "\n" +
                     "Правильный ответ: *" + correctAnswer + "*\n\n" +
                     "Попробуйте еще раз!");
+            if (session.completeQuizQuestion(question)) {
+                track(AnalyticsLog.Type.QUIZ_ANSWER, chatId, 0, null, null);
+            }
         }
 
         editMessage.setParseMode("Markdown");
+        editMessage.setReplyMarkup(quizResultKeyboard());
 
-        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
 
-        List<InlineKeyboardButton> row = new ArrayList<>();
-        InlineKeyboardButton newQuizButton = new InlineKeyboardButton();
-        newQuizButton.setText("🔄 Новый вопрос");
-        newQuizButton.setCallbackData("next_question");
-        row.add(newQuizButton);
+        record("editMessageText", chatId, editMessage);
+        outbound.send(chatId, "editMessageText", () -> execute(editMessage), null, e -> {
+            BotLog.error("send", chatId, BotMetrics.UpdateType.CALLBACK, Route.QUIZ_ANSWER.getHandler(), -1,
+                    "Не удалось изменить сообщение викторины", e);
+            sendErrorMessage(chatId);
+        });
+    }
 
-        InlineKeyboardButton menuButton = new InlineKeyboardButton();
-        menuButton.setText("🏠 Главное меню");
-        menuButton.setCallbackData("main_menu");
-        row.add(menuButton);
+    // Без текста - состояние текущей или последней рассылки
+    private void handleBroadcast(String text, Long chatId) {
+        if (text.isEmpty()) {
+            Broadcaster.Report report = broadcaster.report();
+            sendPlainMessage(chatId, report == null
+                    ? "Рассылок еще не было. Использование: /broadcast <текст объявления>"
+                    : formatBroadcastReport(report));
+            return;
+        }
+        boolean started;
+        try {
+            // Получатели - все известные чаты, и в памяти, и на диске; список сразу пишется в файл рассылки
+            started = broadcaster.start(text, chatId, sessions.chats().iterator());
+        } catch (IOException e) {
+            BotLog.error("broadcast", "Не удалось начать рассылку", e);
+            sendErrorMessage(chatId);
+            return;
+        }
+        sendPlainMessage(chatId, started
+                ? "📣 Рассылка запущена. Состояние: /broadcast"
+                : "⏳ Предыдущая рассылка еще идет. Состояние: /broadcast");
+    }
 
-        rows.add(row);
+    private boolean sendBroadcastMessage(long chatId, String text, Runnable onSent,
+                                         Consumer<TelegramApiException> onError) {
+        SendMessage message = new SendMessage(String.valueOf(chatId), text);
+        record("sendMessage", chatId, message);
+        return outbound.send(chatId, "sendMessage", () -> execute(message), sent -> onSent.run(), onError);
+    }
 
-        markup.setKeyboard(rows);
-        editMessage.setReplyMarkup(markup);
+    // Итог с пропускной способностью рассылки - всем администраторам
+    private void reportBroadcast(Broadcaster.Report report) {
+        for (Long admin : config.getAdminChatIds()) {
+            sendPlainMessage(admin, formatBroadcastReport(report));
+        }
+    }
 
+    private static String formatBroadcastReport(Broadcaster.Report report) {
+        return String.format("📣 Рассылка %s\n\nОбработано: %d из %d\nДоставлено: %d\n"
+                        + "Заблокировали бота: %d\nОшибок: %d\nСкорость: %.1f сообщений/с",
+                report.running ? "идет" : report.aborted ? "прервана: список получателей не читается" : "завершена",
+                report.done, report.total, report.sent,
+                report.blocked, report.failed, report.perSecond);
+    }
 
-        try {
-            execute(editMessage);
-        } catch (TelegramApiException e) {
-            e.printStackTrace();
-            sendErrorMessage(chatId);
+    // Без Markdown: текст объявления задает администратор
+    private void sendPlainMessage(Long chatId, String text) {
+        executeMessage(new SendMessage(chatId.toString(), text));
+    }
+
+    private void sendLeaderboard(Long chatId, UserSession session) {
+        StringBuilder text = new StringBuilder("🏅 *Рейтинг викторины:*\n\n");
+        List<QuizLeaderboard.Entry> top = leaderboard.top(10);
+        if (top.isEmpty()) {
+            text.append("Пока никто не ответил правильно. Будьте первым: `/quiz`\n");
+        }
+        int place = 1;
+        for (QuizLeaderboard.Entry entry : top) {
+            text.append(place++).append(". Игрок ").append(maskChatId(entry.chatId))
+                    .append(" - ").append(entry.score);
+            if (entry.chatId == chatId) {
+                text.append(" (вы)");
+            }
+            text.append("\n");
+        }
+
+        long rank = leaderboard.rankOf(session.getCorrectAnswers());
+        if (rank > 0) {
+            text.append("\nВаше место: ").append(rank).append(" из ").append(leaderboard.players());
         }
+        sendTextMessage(chatId, text.toString());
     }
 
-    private void sendFavorites(Long chatId, UserSession session) {
+    // Чужие идентификаторы чатов не показываются целиком
+    private static String maskChatId(long chatId) {
+        String id = Long.toString(Math.abs(chatId));
+        return "…" + id.substring(Math.max(0, id.length() - 4));
+    }
+
+    private void sendFavorites(Long chatId, UserSession session, boolean degraded) {
+        executeMessage(renderFavorites(chatId, session, degraded));
+    }
+
+    // В упрощенном режиме список выводится без поиска бренда для каждой модели
+    SendMessage renderFavorites(Long chatId, UserSession session, boolean degraded) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId.toString());
 
@@ -608,8 +1349,8 @@ public class MyBot extends TelegramLongPollingBot {
             StringBuilder text = new StringBuilder("⭐️ *Ваши избранные модели:*\n\n");
             int i = 1;
             for (String model : favorites) {
-                Optional<String> brandOpt = MyBotService.getBrandOfModel(model);
-                String brandInfo = brandOpt.map(b -> " (" + b + ")").orElse("");
+                String brandInfo = degraded ? "" : MyBotService.getBrandOfModel(model)
+                        .map(b -> " (" + b + ")").orElse("");
                 text.append(i).append(". *").append(model).append("*").append(brandInfo).append("\n");
                 i++;
             }
@@ -641,16 +1382,21 @@ public class MyBot extends TelegramLongPollingBot {
         markup.setKeyboard(rows);
         message.setReplyMarkup(markup);
 
-        executeMessage(message);
+        return message;
     }
 
-    private void sendUserStats(Long chatId, UserSession session) {
+    // В упрощенном режиме общая статистика бота не пересчитывается
+    private void sendUserStats(Long chatId, UserSession session, boolean degraded) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId.toString());
 
         StringBuilder text = new StringBuilder("📊 *Ваша статистика:*\n\n");
         text.append("🔍 Всего просмотрено марок: ").append(session.getBrandViews().size()).append("\n");
         text.append("✅ Правильных ответов в викторине: ").append(session.getCorrectAnswers()).append("\n");
+        long rank = leaderboard.rankOf(session.getCorrectAnswers());
+        if (rank > 0) {
+            text.append("🏅 Место в рейтинге: ").append(rank).append(" из ").append(leaderboard.players()).append("\n");
+        }
         text.append("⭐️ Избранных моделей: ").append(session.getFavorites().size()).append("\n\n");
 
         if (!session.getBrandViews().isEmpty()) {
@@ -662,10 +1408,12 @@ public class MyBot extends TelegramLongPollingBot {
                             text.append("• ").append(entry.getKey()).append(": ").append(entry.getValue()).append(" раз\n"));
         }
 
-        text.append("\n📈 *Общая статистика бота:*\n");
-        Map<String, Integer> modelCounts = MyBotService.getModelCounts();
-        modelCounts.forEach((brand, count) ->
-                text.append("• ").append(brand).append(": ").append(count).append(" моделей\n"));
+        if (!degraded) {
+            text.append("\n📈 *Общая статистика бота:*\n");
+            Map<String, Integer> modelCounts = MyBotService.getModelCounts();
+            modelCounts.forEach((brand, count) ->
+                    text.append("• ").append(brand).append(": ").append(count).append(" моделей\n"));
+        }
 
         message.setText(text.toString());
         message.setParseMode("Markdown");
@@ -690,6 +1438,7 @@ public class MyBot extends TelegramLongPollingBot {
 
     private void handleSearchQuery(String query, Long chatId, UserSession session) {
         List<String> results = MyBotService.searchModelsPartial(query);
+        track(AnalyticsLog.Type.SEARCH, chatId, results.size(), query, null);
 
         SendMessage message = new SendMessage();
         message.setChatId(chatId.toString());
@@ -752,14 +1501,14 @@ public class MyBot extends TelegramLongPollingBot {
     }
 
     private void sendRandomCar(Long chatId) {
-        Optional<String> randomModelOpt = MyBotService.getRandomModel();
+        UserSession session = sessionFor(chatId);
+        Optional<String> randomModelOpt = MyBotService.getRandomModel(session::nextRandomInt);
 
         if (randomModelOpt.isPresent()) {
             String model = randomModelOpt.get();
             Optional<String> brandOpt = MyBotService.getBrandOfModel(model);
 
             if (brandOpt.isPresent()) {
-                UserSession session = userSessions.computeIfAbsent(chatId, k -> new UserSession());
                 sendModelDetails(chatId, brandOpt.get(), model, session);
             } else {
                 sendTextMessage(chatId, "🎲 *Случайная модель:*\n\n" + model);
@@ -770,10 +1519,12 @@ public class MyBot extends TelegramLongPollingBot {
     }
 
     private void sendTopModels(Long chatId) {
-        List<String> topModels = MyBotService.getTopModels(10);
+        String key = RenderCache.key("top", MyBotService.getCatalog().getVersion());
+        executeMessage(renderCache.get(key, this::buildTopModels).toMessage(chatId, RenderedView.NONE));
+    }
 
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
+    private RenderedView buildTopModels() {
+        List<String> topModels = MyBotService.getTopModels(10);
 
         StringBuilder text = new StringBuilder("🏆 *Топ 10 популярных моделей:*\n\n");
 
@@ -785,18 +1536,16 @@ public class MyBot extends TelegramLongPollingBot {
             brandOpt.ifPresent(brand -> text.append("   └── ").append(brand).append("\n"));
         }
 
-        message.setText(text.toString());
-        message.setParseMode("Markdown");
-
-
-        executeMessage(message);
+        return RenderedView.text(text.toString());
     }
 
     private void sendCategoryStats(Long chatId) {
-        Map<String, Long> stats = MyBotService.getCategoryStats();
+        String key = RenderCache.key("category_stats", MyBotService.getCatalog().getVersion());
+        executeMessage(renderCache.get(key, this::buildCategoryStats).toMessage(chatId, RenderedView.NONE));
+    }
 
-        SendMessage message = new SendMessage();
-        message.setChatId(chatId.toString());
+    private RenderedView buildCategoryStats() {
+        Map<String, Long> stats = MyBotService.getCategoryStats();
 
         StringBuilder text = new StringBuilder("📈 *Статистика по категориям:*\n\n");
 
@@ -808,18 +1557,18 @@ public class MyBot extends TelegramLongPollingBot {
                             .append(entry.getValue()).append(" моделей\n");
                 });
 
-        message.setText(text.toString());
-        message.setParseMode("Markdown");
-
-        executeMessage(message);
+        return RenderedView.text(text.toString());
     }
 
     private void toggleFavorite(Long chatId, String model, UserSession session) {
         if (session.getFavorites().contains(model)) {
             session.removeFavorite(model);
+            recommender.onFavoriteRemoved(model, session.getFavorites());
             sendTextMessage(chatId, "❌ Модель *" + model + "* удалена из избранного");
         } else {
+            recommender.onFavoriteAdded(model, session.getFavorites());
             session.addFavorite(model);
+            track(AnalyticsLog.Type.FAVORITE_ADD, chatId, 0, model, null);
             sendTextMessage(chatId, "✅ Модель *" + model + "* добавлена в избранное!");
         }
     }
@@ -828,64 +1577,87 @@ public class MyBot extends TelegramLongPollingBot {
         SendMessage message = new SendMessage();
         message.setChatId(chatId.toString());
         message.setText("🔄 *Сравнение моделей*\n\n" +
-                "Введите две модели для сравнения через запятую:\n\n" +
+                "Введите от 2 до " + MAX_COMPARED + " моделей для сравнения через запятую:\n\n" +
                 "*Пример:*\n" +
                 "M3, Charger\n" +
-                "5 Series, Durango");
+                "5 Series, Durango, X5");
         message.setParseMode("Markdown");
 
         executeMessage(message);
     }
 
     private void handleCompareQuery(String query, Long chatId, UserSession session) {
-        String[] models = query.split(",");
-        if (models.length != 2) {
-            sendTextMessage(chatId, "⚠️ Пожалуйста, введите ровно две модели через запятую.");
+        String[] names = query.split(",");
+        if (names.length < 2 || names.length > MAX_COMPARED) {
+            sendTextMessage(chatId, "⚠️ Пожалуйста, введите от 2 до " + MAX_COMPARED + " моделей через запятую.");
             return;
         }
 
-        String model1 = models[0].trim();
-        String model2 = models[1].trim();
-
-        Optional<String> brand1Opt = MyBotService.getBrandOfModel(model1);
-        Optional<String> brand2Opt = MyBotService.getBrandOfModel(model2);
-
-        if (brand1Opt.isEmpty() || brand2Opt.isEmpty()) {
-            sendTextMessage(chatId, "⚠️ Одна или обе модели не найдены.");
+        // Каждая модель разрешается в номер один раз, признаки читаются одним блоком
+        SpecStore specs = MyBotService.getCatalog().getSpecs();
+        int[] ids = new int[names.length];
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim();
+            ids[i] = specs.idOf(names[i]);
+            if (ids[i] < 0) {
+                missing.add(names[i]);
+            }
+        }
+        if (!missing.isEmpty()) {
+            sendTextMessage(chatId, "⚠️ Не найдены модели: " + String.join(", ", missing));
             session.setMode(UserSession.Mode.NORMAL);
             return;
         }
+        int[] features = specs.features(ids);
 
-        // Сравниваем модели
         StringBuilder comparison = new StringBuilder();
         comparison.append("🔄 *Сравнение моделей:*\n\n");
-
-        comparison.append("*").append(model1).append("* vs *").append(model2).append("*\n\n");
-
-        comparison.append("1️⃣ *").append(model1).append("*\n");
-        comparison.append("   • Бренд: ").append(brand1Opt.get()).append("\n");
-        comparison.append("   • Тип: ").append(MyBotService.getModelDescription(brand1Opt.get(), model1)).append("\n");
-        comparison.append("   • Маслкар: ").append(MyBotService.isMuscleCar(model1) ? "Да 🔥" : "Нет").append("\n\n");
-
-        comparison.append("2️⃣ *").append(model2).append("*\n");
-        comparison.append("   • Бренд: ").append(brand2Opt.get()).append("\n");
-        comparison.append("   • Тип: ").append(MyBotService.getModelDescription(brand2Opt.get(), model2)).append("\n");
-        comparison.append("   • Маслкар: ").append(MyBotService.isMuscleCar(model2) ? "Да 🔥" : "Нет").append("\n\n");
-
-        // Простое сравнение
-        boolean bothMuscleCars = MyBotService.isMuscleCar(model1) && MyBotService.isMuscleCar(model2);
-        boolean sameBrand = brand1Opt.get().equals(brand2Opt.get());
-
-        if (bothMuscleCars) {
-            comparison.append("⚡️ *Обе модели являются маслкарами!*\n");
-        } else if (MyBotService.isMuscleCar(model1)) {
-            comparison.append("⚡️ *" + model1 + " является маслкаром*\n");
-        } else if (MyBotService.isMuscleCar(model2)) {
-            comparison.append("⚡️ *" + model2 + " является маслкаром*\n");
+        comparison.append("*").append(String.join("* vs *", names)).append("*\n\n");
+
+        int strongest = 0;
+        int cheapest = 0;
+        int newest = 0;
+        boolean sameBrand = true;
+        List<String> muscleCars = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            int f = i * SpecStore.FEATURES;
+            int brand = features[f + SpecStore.F_BRAND];
+            boolean muscle = (features[f + SpecStore.F_FLAGS] & SpecStore.FLAG_MUSCLE) != 0;
+
+            comparison.append(i + 1).append(". *").append(names[i]).append("*\n");
+            comparison.append("   • Бренд: ").append(specs.brandName(brand)).append("\n");
+            comparison.append("   • Категория: ").append(specs.categoryName(features[f + SpecStore.F_CATEGORY]))
+                    .append(muscle ? " 🔥" : "").append("\n");
+            comparison.append("   • Год: ").append(features[f + SpecStore.F_YEAR]).append("\n");
+            comparison.append("   • Мощность: ").append(features[f + SpecStore.F_HORSEPOWER]).append(" л.с.\n");
+            comparison.append("   • Цена: $").append(String.format("%,d", features[f + SpecStore.F_PRICE])).append("\n\n");
+
+            if (features[f + SpecStore.F_HORSEPOWER] > features[strongest * SpecStore.FEATURES + SpecStore.F_HORSEPOWER]) {
+                strongest = i;
+            }
+            if (features[f + SpecStore.F_PRICE] < features[cheapest * SpecStore.FEATURES + SpecStore.F_PRICE]) {
+                cheapest = i;
+            }
+            if (features[f + SpecStore.F_YEAR] > features[newest * SpecStore.FEATURES + SpecStore.F_YEAR]) {
+                newest = i;
+            }
+            sameBrand &= brand == features[SpecStore.F_BRAND];
+            if (muscle) {
+                muscleCars.add(names[i]);
+            }
         }
 
+        comparison.append("💪 *Мощнее всех:* ").append(names[strongest]).append("\n");
+        comparison.append("💰 *Дешевле всех:* ").append(names[cheapest]).append("\n");
+        comparison.append("📅 *Новее всех:* ").append(names[newest]).append("\n");
+        if (muscleCars.size() == names.length) {
+            comparison.append("⚡️ *Все модели являются маслкарами!*\n");
+        } else if (!muscleCars.isEmpty()) {
+            comparison.append("⚡️ *Маслкары:* ").append(String.join(", ", muscleCars)).append("\n");
+        }
         if (sameBrand) {
-            comparison.append("🏭 *Обе модели одного бренда*\n");
+            comparison.append("🏭 *Все модели одного бренда*\n");
         }
 
         SendMessage message = new SendMessage();
@@ -897,6 +1669,51 @@ public class MyBot extends TelegramLongPollingBot {
         executeMessage(message);
     }
 
+    private void sendFilterPrompt(Long chatId) {
+        sendTextMessage(chatId, "🎛 *Подбор по характеристикам*\n\n" +
+                "Введите условия через запятую:\n\n" +
+                "*Примеры:*\n" +
+                "• hp > 500, price < 80k\n" +
+                "• купе, год >= 2015\n" +
+                "• BMW, внедорожник, цена <= 60000");
+    }
+
+    private void handleFilterQuery(String query, Long chatId, UserSession session) {
+        SpecStore specs = MyBotService.getCatalog().getSpecs();
+        SpecFilter filter;
+        try {
+            filter = SpecFilter.parse(query, specs);
+        } catch (IllegalArgumentException e) {
+            sendTextMessage(chatId, "⚠️ Не понял условие: " + e.getMessage() + "\n\n" +
+                    "Поля: hp, price, year; категории и марки пишутся как есть.");
+            return;
+        }
+        session.setMode(UserSession.Mode.NORMAL);
+        if (filter.isEmpty()) {
+            sendTextMessage(chatId, "⚠️ Укажите хотя бы одно условие.");
+            return;
+        }
+
+        BitSet found = filter.apply(specs);
+        int total = found.cardinality();
+        track(AnalyticsLog.Type.FILTER, chatId, total, query, null);
+        StringBuilder text = new StringBuilder("🎛 *Подбор: " + query + "*\n\n");
+        if (total == 0) {
+            text.append("⚠️ Подходящих моделей нет.");
+        }
+        int shown = 0;
+        for (int id = found.nextSetBit(0); id >= 0 && shown < 15; id = found.nextSetBit(id + 1), shown++) {
+            text.append("• *").append(specs.model(id)).append("* (").append(specs.brand(id)).append(") - ")
+                    .append(specs.horsepower(id)).append(" л.с., $")
+                    .append(String.format("%,d", specs.price(id))).append(", ")
+                    .append(specs.year(id)).append("\n");
+        }
+        if (total > shown) {
+            text.append("\n... и еще ").append(total - shown).append(" моделей");
+        }
+        sendTextMessage(chatId, text.toString());
+    }
+
     private void sendHelpMessage(Long chatId) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId.toString());
@@ -904,11 +1721,13 @@ public class MyBot extends TelegramLongPollingBot {
                 "*Основные команды:*\n" +
                 "🏁 `/start` - Начать работу с ботом\n" +
                 "🔍 `/search` - Поиск моделей по названию\n" +
-                "🔄 `/compare` - Сравнить две модели\n" +
+                "🎛 `/filter` - Подбор по мощности, цене и категории\n" +
+                "🔄 `/compare` - Сравнить до " + MAX_COMPARED + " моделей\n" +
                 "🎲 `/random` - Показать случайную модель\n" +
                 "🎮 `/quiz` - Начать викторину\n" +
                 "⭐️ `/favorites` - Показать избранное\n" +
                 "📊 `/stats` - Ваша статистика\n" +
+                "🏅 `/top` - Рейтинг викторины\n" +
                 "🚗 `/brands` - Выбрать марку\n\n" +
 
                 "*Основные возможности:*\n" +
@@ -942,26 +1761,79 @@ public class MyBot extends TelegramLongPollingBot {
         executeMessage(message);
     }
 
+    private void sendBusyMessage(Long chatId) {
+        overload.onShed();
+        SendMessage message = new SendMessage(chatId.toString(), BUSY_TEXT);
+        executeMessage(message);
+    }
+
     private void sendErrorMessage(Long chatId) {
         sendTextMessage(chatId, "⚠️ Произошла ошибка. Пожалуйста, попробуйте еще раз или используйте /start");
     }
 
     private void executeMessage(SendMessage message) {
-        try {
-            execute(message);
-        } catch (TelegramApiException e) {
-            System.err.println("Ошибка отправки сообщения: " + e.getMessage());
+        long chatId = Long.parseLong(message.getChatId());
+        record("sendMessage", chatId, message);
+        if (!outbound.send(chatId, "sendMessage", () -> execute(message), null, null)) {
+            BotLog.warn("outbound_full", chatId, "Очередь отправки переполнена, сообщение отброшено");
         }
     }
 
+    private void record(String method, long chatId, Object body) {
+        if (recorder != null) {
+            recorder.recordOutbound(method, chatId, body);
+        }
+    }
+
+    BotMetrics getMetrics() {
+        return metrics;
+    }
+
+    BotRuntime getRuntime() {
+        return runtime;
+    }
+
+    StageStats getHandlerStats() {
+        return handlers.getStats();
+    }
+
+    StageStats getOutboundStats() {
+        return outbound.getStats();
+    }
+
+    @Override
+    public void onClosing() {
+        if (broadcaster != null) {
+            broadcaster.shutdown();
+        }
+        runtime.detach();
+        sessions.close();
+        if (analytics != null) {
+            analytics.close();
+        }
+        if (media != null) {
+            media.close();
+        }
+        recommender.shutdown();
+        if (recorder != null) {
+            try {
+                recorder.close();
+            } catch (IOException e) {
+                BotLog.error("recorder", "Ошибка закрытия журнала трафика", e);
+            }
+        }
+        BotLog.flush(1000);
+        super.onClosing();
+    }
+
     @Override
     public String getBotUsername() {
-        return "@islombekcarcollection_bot";
+        return config.getUsername();
     }
 
     @Override
     public String getBotToken() {
-        return "8433457326:AAE16QSmgNeAWni0X60mqtMxALkGXSxHyy4";
+        return config.getToken();
     }
 
     // Вспомогательные методы
@@ -984,71 +1856,4 @@ public class MyBot extends TelegramLongPollingBot {
             default: return "🔸";
         }
     }
-
-    // Класс для хранения сессии пользователя
-    private static class UserSession {
-        enum Mode {
-            NORMAL, SEARCH, COMPARE
-        }
-
-        private Mode mode = Mode.NORMAL;
-        private String selectedBrand;
-        private String selectedCategory;
-        private final Set<String> favorites = new HashSet<>();
-        private final Map<String, Integer> brandViews = new HashMap<>();
-        private int correctAnswers = 0;
-        private String currentQuizQuestion;
-        private String currentQuizAnswer;
-
-
-        public void reset() {
-            mode = Mode.NORMAL;
-            selectedBrand = null;
-            selectedCategory = null;
-        }
-
-        public void addFavorite(String model) {
-            favorites.add(model);
-        }
-
-        public void removeFavorite(String model) {
-            favorites.remove(model);
-        }
-
-        public Set<String> getFavorites() {
-            return new HashSet<>(favorites);
-        }
-
-        public void incrementBrandViews(String brand) {
-            brandViews.put(brand, brandViews.getOrDefault(brand, 0) + 1);
-        }
-
-        public Map<String, Integer> getBrandViews() {
-            return new HashMap<>(brandViews);
-        }
-
-        public void incrementCorrectAnswers() {
-            correctAnswers++;
-        }
-
-        public int getCorrectAnswers() {
-            return correctAnswers;
-        }
-
-        // Геттеры и сеттеры
-        public Mode getMode() { return mode; }
-        public void setMode(Mode mode) { this.mode = mode; }
-
-        public String getSelectedBrand() { return selectedBrand; }
-        public void setSelectedBrand(String brand) { this.selectedBrand = brand; }
-
-        public String getSelectedCategory() { return selectedCategory; }
-        public void setSelectedCategory(String category) { this.selectedCategory = category; }
-
-        public String getCurrentQuizQuestion() { return currentQuizQuestion; }
-        public void setCurrentQuizQuestion(String question) { this.currentQuizQuestion = question; }
-
-        public String getCurrentQuizAnswer() { return currentQuizAnswer; }
-        public void setCurrentQuizAnswer(String answer) { this.currentQuizAnswer = answer; }
-    }
 }
@@ -1,7 +1,11 @@
 package com.example.telegrambot;
 
+import java.text.Normalizer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 import java.util.stream.Collectors;
 
 public class MyBotService {
@@ -36,72 +40,62 @@ public class MyBotService {
         }
     }
 
-    // Collections и Map
-    private static final Map<String, List<String>> BMW_CATEGORIES = new HashMap<>();
-    private static final Map<String, List<String>> DODGE_CATEGORIES = new HashMap<>();
+    // Текущий снимок каталога; заменяется целиком при загрузке
+    private static volatile CarCatalog catalog = CarCatalog.builtIn();
 
-    static {
-        // BMW категории
-        BMW_CATEGORIES.put("седан", Arrays.asList("3 Series", "5 Series", "7 Series"));
-        BMW_CATEGORIES.put("внедорожник", Arrays.asList("X3", "X5", "X7"));
-        BMW_CATEGORIES.put("купе", Arrays.asList("2 Series", "4 Series", "8 Series"));
-        BMW_CATEGORIES.put("пикап", Collections.singletonList("не доступно"));
-        BMW_CATEGORIES.put("маслкар", Arrays.asList("M3", "M5", "M8"));
+    // Кэш поиска: нормализованный запрос -> результат, помеченный версией каталога
+    private static final int SEARCH_CACHE_LIMIT = 4096;
+    private static final Map<String, SearchResult> searchCache = new ConcurrentHashMap<>();
+    private static final LongAdder searchHits = new LongAdder();
+    private static final LongAdder searchMisses = new LongAdder();
 
-        // Dodge категории
-        DODGE_CATEGORIES.put("седан", Arrays.asList("Charger", "Challenger"));
-        DODGE_CATEGORIES.put("внедорожник", Collections.singletonList("Durango"));
-        DODGE_CATEGORIES.put("купе", Collections.singletonList("Challenger Coupe"));
-        DODGE_CATEGORIES.put("пикап", Collections.singletonList("Ram"));
-        DODGE_CATEGORIES.put("маслкар", Arrays.asList("Charger SRT Hellcat", "Challenger SRT Demon"));
-    }
+    private static final class SearchResult {
+        final long version;
+        final List<String> models;
 
-    // HashMap и TreeMap
-    private static final Map<String, CarInfo<String>> CARS_MAP = new HashMap<>();
-    private static final TreeMap<String, String> CAR_TYPES_TREE = new TreeMap<>();
+        SearchResult(long version, List<String> models) {
+            this.version = version;
+            this.models = models;
+        }
+    }
 
-    static {
-        // Инициализация HashMap
-        CARS_MAP.put("BMW", new CarInfo<>("BMW", "German", BMW_CATEGORIES));
-        CARS_MAP.put("Dodge", new CarInfo<>("Dodge", "American", DODGE_CATEGORIES));
+    public static void load(CarCatalog newCatalog) {
+        catalog = newCatalog;
+        searchCache.clear();
+    }
 
-        // Инициализация TreeMap
-        CAR_TYPES_TREE.put("BMW", "German Luxury");
-        CAR_TYPES_TREE.put("Dodge", "American Muscle");
+    static CarCatalog getCatalog() {
+        return catalog;
     }
 
     // Stream API методы
     public static List<String> getAllCategories() {
-        return BMW_CATEGORIES.keySet().stream()
+        return catalog.getCars().values().stream()
+                .flatMap(carInfo -> carInfo.getModels().keySet().stream())
+                .distinct()
                 .sorted()
                 .collect(Collectors.toList());
     }
 
     public static List<String> getAvailableModels(String brand, String category) {
-        return Optional.ofNullable(CARS_MAP.get(brand))
+        return Optional.ofNullable(catalog.getCars().get(brand))
                 .flatMap(carInfo -> carInfo.getModels(category))
                 .orElse(Collections.emptyList());
     }
 
     // Lambda выражения
     public static final Function<String, List<String>> BRAND_MODEL_FINDER = brand ->
-            Optional.ofNullable(CARS_MAP.get(brand))
+            Optional.ofNullable(catalog.getCars().get(brand))
                     .flatMap(carInfo -> carInfo.getModels("маслкар"))
                     .orElse(Arrays.asList("No models found"));
 
-    // Stream с фильтрацией
+    // Фильтрация по подстроке; на больших каталогах просмотр идет параллельно
     public static List<String> filterModelsByKeyword(String keyword) {
-        return CARS_MAP.values().stream()
-                .flatMap(carInfo -> carInfo.getModels().values().stream())
-                .flatMap(List::stream)
-                .filter(model -> model.toLowerCase().contains(keyword.toLowerCase()))
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        return catalog.getSpecs().search(keyword.toLowerCase(Locale.ROOT));
     }
 
     public static Map<String, List<String>> getCarCategories(String brand) {
-        return Optional.ofNullable(CARS_MAP.get(brand))
+        return Optional.ofNullable(catalog.getCars().get(brand))
                 .map(CarInfo::getModels)
                 .orElse(Collections.emptyMap());
     }
@@ -109,74 +103,105 @@ public class MyBotService {
 
     // Новые методы для интерактивности
     public static List<String> getAllBrands() {
-        return new ArrayList<>(CARS_MAP.keySet());
+        return new ArrayList<>(catalog.getCars().keySet());
     }
 
     public static String getCarDescription(String brand) {
-        return CAR_TYPES_TREE.getOrDefault(brand, "Unknown brand");
+        return catalog.getDescriptions().getOrDefault(brand, "Unknown brand");
     }
 
+    // Счетчики посчитаны при построении индексов каталога
     public static Map<String, Integer> getModelCounts() {
-        return CARS_MAP.entrySet().stream()
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        entry -> entry.getValue().getModels().values().stream()
-                                .mapToInt(List::size)
-                                .sum()
-                ));
+        SpecStore specs = catalog.getSpecs();
+        Map<String, Integer> counts = new HashMap<>();
+        for (int b = 0; b < specs.brandCount(); b++) {
+            counts.put(specs.brandName(b), specs.modelsOfBrand(b));
+        }
+        return counts;
     }
 
     // Получить случайную модель
     public static Optional<String> getRandomModel() {
-        List<String> allModels = CARS_MAP.values().stream()
+        Random random = new Random();
+        return getRandomModel(random::nextInt);
+    }
+
+    // Случайная модель с заданным источником случайности (для воспроизводимости)
+    public static Optional<String> getRandomModel(IntUnaryOperator randomIndex) {
+        List<String> allModels = catalog.getCars().values().stream()
                 .flatMap(carInfo -> carInfo.getModels().values().stream())
                 .flatMap(List::stream)
-                .filter(model -> !model.equals("не доступно"))
+                .filter(model -> !model.equals(CarCatalog.NOT_AVAILABLE))
                 .collect(Collectors.toList());
 
         if (allModels.isEmpty()) {
             return Optional.empty();
         }
 
-        Random random = new Random();
-        return Optional.of(allModels.get(random.nextInt(allModels.size())));
+        return Optional.of(allModels.get(randomIndex.applyAsInt(allModels.size())));
     }
 
-    // Поиск по частичному совпадению
+    // Поиск по частичному совпадению; повторные запросы отвечаются из кэша.
+    // Результат неизменяемый и общий для всех пользователей
     public static List<String> searchModelsPartial(String partialName) {
-        return CARS_MAP.values().stream()
-                .flatMap(carInfo -> carInfo.getModels().values().stream())
-                .flatMap(List::stream)
-                .filter(model -> model.toLowerCase().contains(partialName.toLowerCase()))
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
+        CarCatalog current = catalog;
+        String key = normalizeQuery(partialName);
+        SearchResult cached = searchCache.get(key);
+        if (cached != null && cached.version == current.getVersion()) {
+            searchHits.increment();
+            return cached.models;
+        }
+        searchMisses.increment();
+
+        List<String> models = Collections.unmodifiableList(current.getSpecs().search(key));
+        if (searchCache.size() >= SEARCH_CACHE_LIMIT) {
+            evictSearchEntries(current.getVersion());
+        }
+        searchCache.put(key, new SearchResult(current.getVersion(), models));
+        return models;
+    }
+
+    // Регистр, пробелы по краям и совместимые формы Unicode (полноширинные символы и т.п.) не различаются
+    static String normalizeQuery(String query) {
+        return Normalizer.normalize(query, Normalizer.Form.NFKC).trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Сначала удаляются записи старых версий каталога, затем примерно восьмая часть остальных
+    private static void evictSearchEntries(long version) {
+        searchCache.values().removeIf(entry -> entry.version != version);
+        int toRemove = SEARCH_CACHE_LIMIT / 8 - (SEARCH_CACHE_LIMIT - searchCache.size());
+        Iterator<String> keys = searchCache.keySet().iterator();
+        while (toRemove-- > 0 && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
     }
 
+    static long getSearchCacheHits() { return searchHits.sum(); }
+    static long getSearchCacheMisses() { return searchMisses.sum(); }
+    static int getSearchCacheSize() { return searchCache.size(); }
+
     // Получить топ моделей
     public static List<String> getTopModels(int limit) {
-        return CARS_MAP.values().stream()
+        return catalog.getCars().values().stream()
                 .flatMap(carInfo -> carInfo.getModels().values().stream())
                 .flatMap(List::stream)
-                .filter(model -> !model.equals("не доступно"))
+                .filter(model -> !model.equals(CarCatalog.NOT_AVAILABLE))
                 .limit(limit)
                 .sorted()
                 .collect(Collectors.toList());
     }
 
-    // Проверить, является ли модель маслкаром
+    // Проверить, является ли модель маслкаром (по категории в каталоге)
     public static boolean isMuscleCar(String model) {
         if (model == null) return false;
-        String lowerModel = model.toLowerCase();
-        return lowerModel.contains("m") ||
-                lowerModel.contains("srt") ||
-                lowerModel.contains("hellcat") ||
-                lowerModel.contains("demon");
+        SpecStore specs = catalog.getSpecs();
+        return specs.isMuscle(specs.idOf(model));
     }
 
     // Получить бренд модели
     public static Optional<String> getBrandOfModel(String model) {
-        return CARS_MAP.entrySet().stream()
+        return catalog.getCars().entrySet().stream()
                 .filter(entry -> entry.getValue().getModels().values().stream()
                         .flatMap(List::stream)
                         .anyMatch(m -> m.equals(model)))
@@ -186,7 +211,7 @@ public class MyBotService {
 
     // Получить категорию модели
     public static Optional<String> getCategoryOfModel(String brand, String model) {
-        return Optional.ofNullable(CARS_MAP.get(brand))
+        return Optional.ofNullable(catalog.getCars().get(brand))
                 .flatMap(carInfo -> carInfo.getModels().entrySet().stream()
                         .filter(entry -> entry.getValue().contains(model))
                         .map(Map.Entry::getKey)
@@ -207,27 +232,24 @@ public class MyBotService {
 
     // Получить все модели бренда
     public static List<String> getAllModels(String brand) {
-        return Optional.ofNullable(CARS_MAP.get(brand))
-                .map(carInfo -> carInfo.getModels().values().stream()
-                        .flatMap(List::stream)
-                        .filter(model -> !model.equals("не доступно"))
-                        .collect(Collectors.toList()))
-                .orElse(Collections.emptyList());
+        return catalog.getSpecs().brandModels(brand);
     }
 
-    // Получить статистику по категориям
+    // Получить статистику по категориям (без пустых категорий и заглушек "не доступно")
     public static Map<String, Long> getCategoryStats() {
-        return CARS_MAP.values().stream()
-                .flatMap(carInfo -> carInfo.getModels().entrySet().stream())
-                .collect(Collectors.groupingBy(
-                        Map.Entry::getKey,
-                        Collectors.summingLong(entry -> entry.getValue().size())
-                ));
+        SpecStore specs = catalog.getSpecs();
+        Map<String, Long> stats = new HashMap<>();
+        for (int c = 0; c < specs.categoryCount(); c++) {
+            if (specs.modelsInCategory(c) > 0) {
+                stats.put(specs.categoryName(c), (long) specs.modelsInCategory(c));
+            }
+        }
+        return stats;
     }
 
     // Сериализация Map
     public static String serializeMap() {
-        return CARS_MAP.entrySet().stream()
+        return catalog.getCars().entrySet().stream()
                 .map(entry -> entry.getKey() + ":" + entry.getValue().getType())
                 .collect(Collectors.joining(";"));
     }
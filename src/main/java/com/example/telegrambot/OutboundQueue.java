@@ -0,0 +1,60 @@
+package com.example.telegrambot;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.io.Serializable;
+import java.util.function.Consumer;
+
+// Очередь исходящих вызовов Telegram API: обработчики не ждут сети.
+// Потоки отправки общие для ботов процесса, метрики вызовов - свои у каждого бота
+final class OutboundQueue {
+
+    interface TelegramCall<T extends Serializable> {
+        T execute() throws TelegramApiException;
+    }
+
+    private final PipelineStage stage;
+    private final BotMetrics metrics;
+
+    OutboundQueue(PipelineStage stage, BotMetrics metrics) {
+        this.stage = stage;
+        this.metrics = metrics;
+    }
+
+    // method - имя метода Bot API для метрик (sendMessage, editMessageText, ...)
+    <T extends Serializable> boolean send(long chatId, String method, TelegramCall<T> call,
+                                          Consumer<T> onSuccess, Consumer<TelegramApiException> onError) {
+        return stage.submit(chatId, queued -> invoke(chatId, method, call, onSuccess, onError));
+    }
+
+    // Без ожидания: для ответов «бот перегружен», когда ждать уже нельзя
+    <T extends Serializable> boolean trySend(long chatId, String method, TelegramCall<T> call) {
+        return stage.trySubmit(chatId, queued -> invoke(chatId, method, call, null, null));
+    }
+
+    private <T extends Serializable> void invoke(long chatId, String method, TelegramCall<T> call,
+                                                 Consumer<T> onSuccess, Consumer<TelegramApiException> onError) {
+        long started = System.nanoTime();
+        T result;
+        try {
+            result = call.execute();
+            metrics.recordApiCall(method, System.nanoTime() - started, false);
+        } catch (TelegramApiException e) {
+            long elapsed = System.nanoTime() - started;
+            metrics.recordApiCall(method, elapsed, true);
+            if (onError != null) {
+                onError.accept(e);
+            } else {
+                BotLog.error("send", chatId, null, method, elapsed, "Ошибка отправки сообщения", e);
+            }
+            return;
+        }
+        if (onSuccess != null) {
+            onSuccess.accept(result);
+        }
+    }
+
+    StageStats getStats() {
+        return stage.getStats();
+    }
+}
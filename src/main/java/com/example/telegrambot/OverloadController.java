@@ -0,0 +1,71 @@
+package com.example.telegrambot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Контроль перегрузки в стиле CoDel: если время ожидания в очереди держится выше цели
+// дольше интервала, бот переходит в режим упрощенных ответов
+final class OverloadController {
+
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final long staleNanos;
+
+    private volatile long firstAboveTime;
+    private volatile boolean overloaded;
+
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder degraded = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    OverloadController(long targetMillis, long intervalMillis, long staleMillis) {
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.staleNanos = TimeUnit.MILLISECONDS.toNanos(staleMillis);
+    }
+
+    // Вызывается рабочим потоком при извлечении задачи из очереди
+    void onDequeue(long queuedNanos) {
+        if (queuedNanos < targetNanos) {
+            firstAboveTime = 0;
+            overloaded = false;
+            return;
+        }
+        long now = System.nanoTime();
+        long first = firstAboveTime;
+        if (first == 0) {
+            firstAboveTime = now + intervalNanos;
+        } else if (now >= first) {
+            overloaded = true;
+        }
+    }
+
+    boolean isOverloaded() {
+        return overloaded;
+    }
+
+    // Устаревшие обновления: долго ждали в очереди или отправлены давно (например, после простоя)
+    boolean isStale(long queuedNanos, Integer messageDateSeconds) {
+        boolean old = queuedNanos > staleNanos;
+        if (!old && messageDateSeconds != null) {
+            long ageMillis = System.currentTimeMillis() - messageDateSeconds * 1000L;
+            old = TimeUnit.MILLISECONDS.toNanos(ageMillis) > staleNanos;
+        }
+        if (old) {
+            stale.increment();
+        }
+        return old;
+    }
+
+    void onShed() {
+        shed.increment();
+    }
+
+    void onDegraded() {
+        degraded.increment();
+    }
+
+    long getShedCount() { return shed.sum(); }
+    long getDegradedCount() { return degraded.sum(); }
+    long getStaleCount() { return stale.sum(); }
+}
@@ -0,0 +1,149 @@
+package com.example.telegrambot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Стадия конвейера: N шардов (очередь + поток), задачи одного чата всегда попадают в один шард,
+// поэтому порядок обработки внутри чата сохраняется
+final class PipelineStage {
+
+    interface Job {
+        void run(long queuedNanos);
+    }
+
+    private static final class Entry {
+        final Job job;
+        final long enqueuedAt;
+
+        Entry(Job job, long enqueuedAt) {
+            this.job = job;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    private final class Shard implements Runnable {
+        final RingBuffer<Entry> queue;
+        volatile Thread thread;
+        volatile boolean parked;
+
+        Shard(int capacity) {
+            this.queue = new RingBuffer<>(capacity);
+        }
+
+        void wakeUp() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running || queue.size() > 0) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    parked = true;
+                    entry = queue.poll();
+                    if (entry == null) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        parked = false;
+                        continue;
+                    }
+                    parked = false;
+                }
+                long started = System.nanoTime();
+                long queued = started - entry.enqueuedAt;
+                try {
+                    entry.job.run(queued);
+                } catch (RuntimeException e) {
+                    BotLog.error("stage", "Ошибка в стадии " + stats.getName(), e);
+                }
+                stats.onProcessed(queued, System.nanoTime() - started);
+            }
+        }
+    }
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final Shard[] shards;
+    private final long offerTimeoutNanos;
+    private final StageStats stats;
+    private volatile boolean running = true;
+
+    PipelineStage(String name, int workers, int capacityPerShard, long offerTimeoutMillis) {
+        this.shards = new Shard[workers];
+        for (int i = 0; i < workers; i++) {
+            shards[i] = new Shard(capacityPerShard);
+        }
+        this.offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+        this.stats = new StageStats(name, this::depth);
+
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(shards[i], name + "-" + i);
+            thread.setDaemon(true);
+            shards[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    // Постановка с обратным давлением: ждет освобождения места не дольше offerTimeout
+    boolean submit(long key, Job job) {
+        Shard shard = shardFor(key);
+        Entry entry = new Entry(job, System.nanoTime());
+        if (shard.queue.offer(entry)) {
+            accepted(shard);
+            return true;
+        }
+        long deadline = entry.enqueuedAt + offerTimeoutNanos;
+        while (running && System.nanoTime() < deadline) {
+            shard.wakeUp();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+            if (shard.queue.offer(entry)) {
+                accepted(shard);
+                return true;
+            }
+        }
+        stats.onRejected();
+        return false;
+    }
+
+    // Постановка без ожидания
+    boolean trySubmit(long key, Job job) {
+        Shard shard = shardFor(key);
+        if (shard.queue.offer(new Entry(job, System.nanoTime()))) {
+            accepted(shard);
+            return true;
+        }
+        stats.onRejected();
+        return false;
+    }
+
+    void shutdown() {
+        running = false;
+        for (Shard shard : shards) {
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    StageStats getStats() {
+        return stats;
+    }
+
+    int depth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.queue.size();
+        }
+        return depth;
+    }
+
+    private void accepted(Shard shard) {
+        stats.onAccepted();
+        shard.wakeUp();
+    }
+
+    private Shard shardFor(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return shards[(int) ((h ^ (h >>> 32)) & 0x7fffffff) % shards.length];
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.telegrambot;
+
+import java.util.*;
+
+// Банк вопросов викторины, построенный по каталогу при загрузке.
+// Вопрос задается номером: q / 2 - запись (модель, марка, категория), q % 2 - тип вопроса.
+// Варианты ответов хранятся как номера марок или категорий, по OPTIONS на вопрос
+final class QuizBank {
+
+    static final int OPTIONS = 4;
+
+    private static final int KIND_BRAND = 0;
+    private static final int KIND_CATEGORY = 1;
+    private static final int KINDS = 2;
+    // Сид фиксирован, чтобы варианты ответов не зависели от порядка загрузок каталога
+    private static final long OPTIONS_SEED = 42;
+
+    private final String[] brands;
+    private final String[] categories;
+    private final String[] models;
+    private final int[] entryBrand;
+    private final int[] entryCategory;
+    // options[q * OPTIONS + i]; -1 - вариант отсутствует (в каталоге мало марок)
+    private final int[] options;
+
+    private QuizBank(String[] brands, String[] categories, String[] models,
+                     int[] entryBrand, int[] entryCategory) {
+        this.brands = brands;
+        this.categories = categories;
+        this.models = models;
+        this.entryBrand = entryBrand;
+        this.entryCategory = entryCategory;
+        this.options = new int[models.length * KINDS * OPTIONS];
+
+        Random random = new Random(OPTIONS_SEED);
+        int[] choice = new int[OPTIONS];
+        for (int q = 0; q < size(); q++) {
+            int answer = answerOf(q);
+            int pool = kindOf(q) == KIND_BRAND ? brands.length : categories.length;
+            int count = fillOptions(choice, answer, pool, random);
+            for (int i = 0; i < OPTIONS; i++) {
+                options[q * OPTIONS + i] = i < count ? choice[i] : -1;
+            }
+        }
+    }
+
+    static QuizBank build(CarCatalog catalog) {
+        List<String> brandList = new ArrayList<>(new TreeSet<>(catalog.getCars().keySet()));
+        Map<String, Integer> brandIds = new HashMap<>();
+        for (int i = 0; i < brandList.size(); i++) {
+            brandIds.put(brandList.get(i), i);
+        }
+
+        // Сначала стандартные категории, затем прочие из каталога
+        List<String> categoryList = new ArrayList<>(CarCatalog.CATEGORIES);
+        for (MyBotService.CarInfo<String> info : catalog.getCars().values()) {
+            for (String category : info.getModels().keySet()) {
+                if (!categoryList.contains(category)) {
+                    categoryList.add(category);
+                }
+            }
+        }
+        Map<String, Integer> categoryIds = new HashMap<>();
+        for (int i = 0; i < categoryList.size(); i++) {
+            categoryIds.put(categoryList.get(i), i);
+        }
+
+        List<String> models = new ArrayList<>();
+        int[] entryBrand = new int[16];
+        int[] entryCategory = new int[16];
+        for (String brand : brandList) {
+            Map<String, List<String>> byCategory = catalog.getCars().get(brand).getModels();
+            for (String category : categoryList) {
+                List<String> list = byCategory.get(category);
+                if (list == null) {
+                    continue;
+                }
+                for (String model : list) {
+                    if (model.equals(CarCatalog.NOT_AVAILABLE)) {
+                        continue;
+                    }
+                    int n = models.size();
+                    if (n == entryBrand.length) {
+                        entryBrand = Arrays.copyOf(entryBrand, n * 2);
+                        entryCategory = Arrays.copyOf(entryCategory, n * 2);
+                    }
+                    models.add(model);
+                    entryBrand[n] = brandIds.get(brand);
+                    entryCategory[n] = categoryIds.get(category);
+                }
+            }
+        }
+        int n = models.size();
+        return new QuizBank(brandList.toArray(new String[0]), categoryList.toArray(new String[0]),
+                models.toArray(new String[0]), Arrays.copyOf(entryBrand, n), Arrays.copyOf(entryCategory, n));
+    }
+
+    int size() {
+        return models.length * KINDS;
+    }
+
+    String questionText(int q) {
+        int entry = q / KINDS;
+        if (kindOf(q) == KIND_BRAND) {
+            return "Какая марка выпускает модель *" + models[entry] + "*?";
+        }
+        return "К какой категории относится *" + brands[entryBrand[entry]] + " " + models[entry] + "*?";
+    }
+
+    // Номер правильного варианта
+    int answerOf(int q) {
+        int entry = q / KINDS;
+        return kindOf(q) == KIND_BRAND ? entryBrand[entry] : entryCategory[entry];
+    }
+
+    // Номер варианта в позиции slot или -1
+    int optionAt(int q, int slot) {
+        return options[q * OPTIONS + slot];
+    }
+
+    String optionText(int q, int option) {
+        return kindOf(q) == KIND_BRAND ? brands[option] : categories[option];
+    }
+
+    // Вариант действительно предлагался в вопросе q
+    boolean hasOption(int q, int option) {
+        if (q < 0 || q >= size() || option < 0) {
+            return false;
+        }
+        for (int slot = 0; slot < OPTIONS; slot++) {
+            if (options[q * OPTIONS + slot] == option) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isCorrect(int q, int option) {
+        return q >= 0 && q < size() && answerOf(q) == option;
+    }
+
+    private static int kindOf(int q) {
+        return q % KINDS;
+    }
+
+    // Правильный ответ и до OPTIONS - 1 отвлекающих вариантов в случайном порядке
+    private static int fillOptions(int[] choice, int answer, int pool, Random random) {
+        int count = 0;
+        choice[count++] = answer;
+        int wanted = Math.min(OPTIONS, pool);
+        while (count < wanted) {
+            int candidate = random.nextInt(pool);
+            boolean seen = false;
+            for (int i = 0; i < count; i++) {
+                seen |= choice[i] == candidate;
+            }
+            if (!seen) {
+                choice[count++] = candidate;
+            }
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = choice[i];
+            choice[i] = choice[j];
+            choice[j] = tmp;
+        }
+        return count;
+    }
+}
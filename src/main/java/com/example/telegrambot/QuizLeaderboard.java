@@ -0,0 +1,151 @@
+package com.example.telegrambot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Общий рейтинг викторины. Дерево Фенвика по корзинам очков (число игроков с данным счетом)
+// дает место игрока за O(log n); лучшие игроки хранятся в небольшом упорядоченном наборе.
+// Обновления идут атомарными сложениями без общей блокировки. В кластере рейтинг у каждого узла свой:
+// учитываются только чаты, которыми узел владеет
+final class QuizLeaderboard {
+
+    // Счет выше предела попадает в последнюю корзину
+    static final int MAX_SCORE = 1 << 16;
+    private static final int TOP_KEEP = 32;
+
+    static final class Entry {
+        final long chatId;
+        final int score;
+
+        Entry(long chatId, int score) {
+            this.chatId = chatId;
+            this.score = score;
+        }
+    }
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingInt(e -> -e.score)
+            .thenComparingLong(e -> e.chatId);
+
+    private final AtomicLongArray tree = new AtomicLongArray(MAX_SCORE + 1);
+    private final ConcurrentSkipListSet<Entry> top = new ConcurrentSkipListSet<>(ORDER);
+
+    // Вызывается после каждого правильного ответа; счет игрока только растет.
+    // Обновления одного чата идут последовательно (один шард конвейера)
+    void onScore(long chatId, int oldScore, int newScore) {
+        int from = clamp(oldScore);
+        int to = clamp(newScore);
+        if (from != to) {
+            if (from > 0) {
+                add(from, -1);
+            }
+            add(to, 1);
+        }
+        admit(chatId, oldScore, newScore);
+    }
+
+    // Игрок больше не учитывается: его сессия передана другому узлу кластера.
+    // true - освободилось место в наборе лучших: его надо заполнить через offer, иначе туда попадет
+    // первый, кто наберет очки, а не следующий по счету
+    boolean remove(long chatId, int score) {
+        int bucket = clamp(score);
+        if (bucket > 0) {
+            add(bucket, -1);
+        }
+        return top.remove(new Entry(chatId, score));
+    }
+
+    // Кандидат в набор лучших из перебора сессий после remove; корзины не меняются.
+    // Вызывается в шарде чата, как onScore: счет актуален, а сессия еще не передана
+    void offer(long chatId, int score) {
+        if (score > 0) {
+            admit(chatId, score, score);
+        }
+    }
+
+    // Место игрока: 1 + число игроков с большим счетом; 0 - игрок еще не набрал очков
+    long rankOf(int score) {
+        int bucket = clamp(score);
+        if (bucket == 0) {
+            return 0;
+        }
+        return players() - prefix(bucket) + 1;
+    }
+
+    long players() {
+        return prefix(MAX_SCORE);
+    }
+
+    List<Entry> top(int limit) {
+        List<Entry> result = new ArrayList<>(limit);
+        for (Entry entry : top) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(entry);
+        }
+        return result;
+    }
+
+    // Лучшие TOP_KEEP игроков из полного перебора
+    static final class Candidates {
+        // В голове - худший из отобранных
+        private final PriorityQueue<Entry> kept = new PriorityQueue<>(ORDER.reversed());
+
+        void add(long chatId, int score) {
+            if (score <= 0) {
+                return;
+            }
+            kept.add(new Entry(chatId, score));
+            if (kept.size() > TOP_KEEP) {
+                kept.poll();
+            }
+        }
+
+        List<Entry> entries() {
+            return new ArrayList<>(kept);
+        }
+    }
+
+    private void admit(long chatId, int oldScore, int newScore) {
+        Entry last = top.size() >= TOP_KEEP ? lastOrNull() : null;
+        if (last == null || newScore > last.score || (newScore == last.score && chatId < last.chatId)) {
+            top.remove(new Entry(chatId, oldScore));
+            top.add(new Entry(chatId, newScore));
+            while (top.size() > TOP_KEEP) {
+                top.pollLast();
+            }
+        }
+    }
+
+    private Entry lastOrNull() {
+        try {
+            return top.last();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    private void add(int bucket, long delta) {
+        for (int i = bucket; i <= MAX_SCORE; i += i & -i) {
+            tree.addAndGet(i, delta);
+        }
+    }
+
+    // Число игроков со счетом от 1 до bucket
+    private long prefix(int bucket) {
+        long sum = 0;
+        for (int i = bucket; i > 0; i -= i & -i) {
+            sum += tree.get(i);
+        }
+        return sum;
+    }
+
+    private static int clamp(int score) {
+        return Math.max(0, Math.min(MAX_SCORE, score));
+    }
+}
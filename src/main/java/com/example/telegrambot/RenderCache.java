@@ -0,0 +1,94 @@
+package com.example.telegrambot;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Кэш отрисованных ответов. Ключ - представление, аргументы и версия каталога, поэтому
+// после перезагрузки каталога старые записи просто перестают запрашиваться и вытесняются.
+// 16 сегментов с LRU-порядком, у каждого свой бюджет памяти по оценке размера записей
+final class RenderCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final long budgetPerSegment;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    RenderCache(long budgetBytes) {
+        this.budgetPerSegment = Math.max(1, budgetBytes / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    static String key(String view, long catalogVersion, Object... args) {
+        StringBuilder key = new StringBuilder(view).append('#').append(catalogVersion);
+        for (Object arg : args) {
+            key.append('\u0000').append(arg);
+        }
+        return key.toString();
+    }
+
+    // Отрисовка идет вне блокировки: при гонке два потока отрисуют одно и то же, это безопасно
+    RenderedView get(String key, Supplier<RenderedView> render) {
+        Segment segment = segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+        RenderedView view = segment.get(key);
+        if (view != null) {
+            hits.increment();
+            return view;
+        }
+        misses.increment();
+        view = render.get();
+        segment.put(key, view);
+        return view;
+    }
+
+    long getHits() { return hits.sum(); }
+    long getMisses() { return misses.sum(); }
+    long getEvictions() { return evictions.sum(); }
+
+    long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    private final class Segment {
+        final LinkedHashMap<String, RenderedView> entries = new LinkedHashMap<>(64, 0.75f, true);
+        long weight;
+
+        synchronized RenderedView get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, RenderedView view) {
+            int size = view.getWeight() + key.length() * 2;
+            // Слишком большие ответы не кэшируются, чтобы не вытеснять весь сегмент
+            if (size > budgetPerSegment / 4) {
+                return;
+            }
+            RenderedView old = entries.put(key, view);
+            if (old != null) {
+                weight -= old.getWeight() + key.length() * 2;
+            }
+            weight += size;
+            Iterator<Map.Entry<String, RenderedView>> eldest = entries.entrySet().iterator();
+            while (weight > budgetPerSegment && eldest.hasNext()) {
+                Map.Entry<String, RenderedView> entry = eldest.next();
+                weight -= entry.getValue().getWeight() + entry.getKey().length() * 2;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
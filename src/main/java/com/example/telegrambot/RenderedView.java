@@ -0,0 +1,94 @@
+package com.example.telegrambot;
+
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Готовый ответ без привязки к чату: текст и inline-клавиатура в виде неизменяемых массивов.
+// Из кэша каждый раз собирается новое сообщение, поверх можно наложить пользовательские детали
+final class RenderedView {
+
+    interface Overlay {
+        // Новые текст и данные кнопки; null - оставить как есть
+        String label(String label, String data);
+
+        default String data(String label, String data) {
+            return null;
+        }
+    }
+
+    static final Overlay NONE = (label, data) -> null;
+
+    private final String text;
+    private final String[][] labels;
+    private final String[][] data;
+    private final int weight;
+
+    private RenderedView(String text, String[][] labels, String[][] data) {
+        this.text = text;
+        this.labels = labels;
+        this.data = data;
+        int chars = text.length();
+        for (int r = 0; r < labels.length; r++) {
+            for (int c = 0; c < labels[r].length; c++) {
+                chars += data[r][c].length() + labels[r][c].length();
+            }
+        }
+        // Оценка занимаемой памяти в байтах: символы строк плюс заголовки объектов
+        this.weight = 64 + chars * 2 + labels.length * 32;
+    }
+
+    static RenderedView of(String text, List<List<InlineKeyboardButton>> rows) {
+        String[][] labels = new String[rows.size()][];
+        String[][] data = new String[rows.size()][];
+        for (int r = 0; r < rows.size(); r++) {
+            List<InlineKeyboardButton> row = rows.get(r);
+            labels[r] = new String[row.size()];
+            data[r] = new String[row.size()];
+            for (int c = 0; c < row.size(); c++) {
+                labels[r][c] = row.get(c).getText();
+                data[r][c] = row.get(c).getCallbackData();
+            }
+        }
+        return new RenderedView(text, labels, data);
+    }
+
+    static RenderedView text(String text) {
+        return new RenderedView(text, new String[0][], new String[0][]);
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+    SendMessage toMessage(Long chatId, Overlay overlay) {
+        SendMessage message = new SendMessage();
+        message.setChatId(chatId.toString());
+        message.setText(text);
+        message.setParseMode("Markdown");
+        if (labels.length == 0) {
+            return message;
+        }
+
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>(labels.length);
+        for (int r = 0; r < labels.length; r++) {
+            List<InlineKeyboardButton> row = new ArrayList<>(labels[r].length);
+            for (int c = 0; c < labels[r].length; c++) {
+                String label = overlay.label(labels[r][c], data[r][c]);
+                String callback = overlay.data(labels[r][c], data[r][c]);
+                InlineKeyboardButton button = new InlineKeyboardButton();
+                button.setText(label != null ? label : labels[r][c]);
+                button.setCallbackData(callback != null ? callback : data[r][c]);
+                row.add(button);
+            }
+            rows.add(row);
+        }
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+        markup.setKeyboard(rows);
+        message.setReplyMarkup(markup);
+        return message;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.telegrambot;
+
+// Маршруты обработчиков: одна точка классификации входящих обновлений
+enum Route {
+    START("sendWelcomeMessage", false),
+    HELP("sendHelpMessage", false),
+    STATS("sendUserStats", true),
+    SEARCH_PROMPT("sendSearchPrompt", false),
+    SEARCH_QUERY("handleSearchQuery", false),
+    FILTER_PROMPT("sendFilterPrompt", false),
+    FILTER_QUERY("handleFilterQuery", false),
+    COMPARE_PROMPT("sendComparePrompt", false),
+    COMPARE_QUERY("handleCompareQuery", true),
+    RANDOM("sendRandomCar", false),
+    QUIZ("sendCarQuiz", false),
+    QUIZ_ANSWER("handleQuizAnswer", false),
+    LEADERBOARD("sendLeaderboard", false),
+    BROADCAST("handleBroadcast", false),
+    FAVORITES("sendFavorites", true),
+    BRANDS("sendBrandSelection", false),
+    CATEGORIES("sendCategorySelection", false),
+    TOP_MODELS("sendTopModels", true),
+    CATEGORY_STATS("sendCategoryStats", true),
+    MAIN_MENU("sendMainMenu", false),
+    BRAND_SELECTED("sendCategorySelection", false),
+    CATEGORY_SELECTED("sendModelsList", false),
+    PAGE("sendModelsList", false),
+    MODEL_DETAILS("sendModelDetails", false),
+    FAVORITE_TOGGLE("toggleFavorite", false),
+    UNKNOWN_COMMAND("unknownCommand", false),
+    UNKNOWN_TEXT("sendMainMenu", false),
+    UNKNOWN_CALLBACK("ignored", false);
+
+    private final String handler;
+    private final boolean expensive;
+
+    Route(String handler, boolean expensive) {
+        this.handler = handler;
+        this.expensive = expensive;
+    }
+
+    String getHandler() {
+        return handler;
+    }
+
+    // Тяжелые обработчики первыми упрощаются или отбрасываются при перегрузке
+    boolean isExpensive() {
+        return expensive;
+    }
+
+    static Route ofCommand(String command) {
+        // Команда с текстом объявления
+        if (command.equals("/broadcast") || command.startsWith("/broadcast ")) {
+            return BROADCAST;
+        }
+        switch (command) {
+            case "/start": return START;
+            case "/help": return HELP;
+            case "/stats": return STATS;
+            case "/search": return SEARCH_PROMPT;
+            case "/filter": return FILTER_PROMPT;
+            case "/compare": return COMPARE_PROMPT;
+            case "/random": return RANDOM;
+            case "/quiz": return QUIZ;
+            case "/top": return LEADERBOARD;
+            case "/favorites": return FAVORITES;
+            case "/brands": return BRANDS;
+            case "/categories": return CATEGORIES;
+            default: return UNKNOWN_COMMAND;
+        }
+    }
+
+    static Route ofText(String text, UserSession.Mode mode) {
+        switch (mode) {
+            case SEARCH:
+                return SEARCH_QUERY;
+            case COMPARE:
+                return COMPARE_QUERY;
+            case FILTER:
+                return FILTER_QUERY;
+            default:
+                break;
+        }
+        switch (text) {
+            case "🏁 Выбрать марку": return BRANDS;
+            case "🔍 Поиск моделей": return SEARCH_PROMPT;
+            case "📊 Статистика": return STATS;
+            case "🎮 Викторина": return QUIZ;
+            case "⭐️ Избранное": return FAVORITES;
+            case "🔄 Случайная модель": return RANDOM;
+            case "🏆 Топ модели": return TOP_MODELS;
+            case "📈 Категории": return CATEGORY_STATS;
+            default: return UNKNOWN_TEXT;
+        }
+    }
+
+    static Route ofCallback(String data) {
+        if (data.startsWith("brand_")) return BRAND_SELECTED;
+        if (data.startsWith("category_")) return CATEGORY_SELECTED;
+        if (data.startsWith("model_")) return MODEL_DETAILS;
+        if (data.startsWith("favorite_")) return FAVORITE_TOGGLE;
+        if (data.startsWith("quiz_")) return QUIZ_ANSWER;
+        if (data.startsWith("page_")) return PAGE;
+        switch (data) {
+            case "back_to_brands": return BRANDS;
+            case "back_to_categories": return CATEGORIES;
+            case "restart_quiz":
+            case "next_question": return QUIZ;
+            case "main_menu": return MAIN_MENU;
+            default: return UNKNOWN_CALLBACK;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.example.telegrambot;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+// Встроенное хранилище ключ-значение на диске. Журнал только дописывается, запись:
+// ключ (8 байт), длина (4, -1 - удаление), CRC32 значения (4), значение. В памяти - индекс
+// ключ -> смещение и длина в примитивных массивах (открытая адресация). При открытии журнал читается
+// целиком, оборванная при сбое запись в конце отрезается. Когда мусора (перезаписанных и удаленных
+// значений) больше, чем живых данных, журнал переписывается заново.
+// Пишет один поток (write, compactIfNeeded), читать можно из любых. Ключ 0 не допускается
+final class SessionLog implements Closeable {
+
+    private static final int HEADER = 16;
+    // Меньше этого журнал не переписывается, даже если почти весь - мусор
+    private static final long COMPACT_MIN_BYTES = 4L << 20;
+
+    private final File file;
+    // Чтение под общей блокировкой, смена индекса и файла при записи - под исключительной
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    // Второй процесс с тем же каталогом испортил бы журнал; блокировка на отдельном файле,
+    // который не переименовывается при сжатии, поэтому не снимается ни на миг
+    private final FileChannel lockChannel;
+    private final FileLock processLock;
+    private Index index = new Index(1024);
+    private long end;
+    private long liveBytes;
+
+    SessionLog(File file) throws IOException {
+        this.file = file;
+        this.lockChannel = FileChannel.open(new File(file.getPath() + ".lock").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Тот же каталог у двух ботов одного процесса
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException(file + " уже открыт другим процессом или ботом");
+        }
+        this.processLock = acquired;
+        try {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    // Значение ключа; null - ключа нет
+    byte[] read(long key) throws IOException {
+        lock.readLock().lock();
+        try {
+            int slot = index.find(key);
+            if (index.keys[slot] != key) {
+                return null;
+            }
+            long offset = index.offsets[slot];
+            ByteBuffer record = ByteBuffer.allocate(HEADER + index.lengths[slot]);
+            readFully(channel, record, offset);
+            record.flip();
+            record.getLong();
+            int length = record.getInt();
+            int crc = record.getInt();
+            byte[] value = new byte[length];
+            record.get(value);
+            if (crc(value) != crc) {
+                throw new IOException(file + ": повреждена запись ключа " + key + " по смещению " + offset);
+            }
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Пакет записей одним вызовом write и одним fsync; значение null удаляет ключ
+    void write(Map<Long, byte[]> batch) throws IOException {
+        int size = 0;
+        for (byte[] value : batch.values()) {
+            size += HEADER + (value != null ? value.length : 0);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Map.Entry<Long, byte[]> entry : batch.entrySet()) {
+            byte[] value = entry.getValue();
+            buffer.putLong(entry.getKey());
+            buffer.putInt(value != null ? value.length : -1);
+            buffer.putInt(value != null ? crc(value) : 0);
+            if (value != null) {
+                buffer.put(value);
+            }
+        }
+        buffer.flip();
+        long position = end;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+
+        // Новые записи видны читателям только после fsync
+        lock.writeLock().lock();
+        try {
+            long offset = end;
+            for (Map.Entry<Long, byte[]> entry : batch.entrySet()) {
+                byte[] value = entry.getValue();
+                apply(entry.getKey(), offset, value != null ? value.length : -1);
+                offset += HEADER + (value != null ? value.length : 0);
+            }
+            end = offset;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Переписывает журнал, если мусора больше половины; вызывается потоком записи
+    boolean compactIfNeeded() throws IOException {
+        if (end < COMPACT_MIN_BYTES || end - liveBytes <= liveBytes) {
+            return false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        int capacity = 1024;
+        while ((index.size + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        Index compacted = new Index(capacity);
+        long written = 0;
+        // Индекс меняет только поток записи (этот же), читать его можно без блокировки
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int slot = 0; slot < index.keys.length; slot++) {
+                if (index.keys[slot] == 0) {
+                    continue;
+                }
+                ByteBuffer record = ByteBuffer.allocate(HEADER + index.lengths[slot]);
+                readFully(channel, record, index.offsets[slot]);
+                record.flip();
+                compacted.put(index.keys[slot], written, index.lengths[slot]);
+                while (record.hasRemaining()) {
+                    written += out.write(record, written);
+                }
+            }
+            out.force(true);
+        }
+        long before = end;
+        lock.writeLock().lock();
+        try {
+            channel.close();
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            index = compacted;
+            end = written;
+            liveBytes = written;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        BotLog.info("session_log", "Журнал сессий сжат: " + before / 1024 + " КБ -> " + written / 1024 + " КБ");
+        return true;
+    }
+
+    List<Long> keys() {
+        lock.readLock().lock();
+        try {
+            List<Long> keys = new ArrayList<>(index.size);
+            for (long key : index.keys) {
+                if (key != 0) {
+                    keys.add(key);
+                }
+            }
+            return keys;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(long key) {
+        lock.readLock().lock();
+        try {
+            return index.keys[index.find(key)] == key;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return index.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Размер журнала и байт в актуальных записях
+    long getBytes() { return end; }
+    long getLiveBytes() { return liveBytes; }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            try {
+                processLock.release();
+                lockChannel.close();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Построение индекса по журналу; хвост после первой поврежденной записи отрезается
+    private void recover() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(0)), 1 << 16));
+        try {
+            while (position + HEADER <= size) {
+                long key = in.readLong();
+                int length = in.readInt();
+                int crc = in.readInt();
+                if (key == 0 || length < -1 || position + HEADER + Math.max(0, length) > size) {
+                    break;
+                }
+                if (length >= 0) {
+                    byte[] value = new byte[length];
+                    in.readFully(value);
+                    if (crc(value) != crc) {
+                        break;
+                    }
+                }
+                apply(key, position, length);
+                position += HEADER + Math.max(0, length);
+            }
+        } catch (EOFException e) {
+            // Файл короче заголовка последней записи: отрезается ниже
+        }
+        if (position < size) {
+            BotLog.warn("session_log", 0, file + ": отрезано " + (size - position)
+                    + " байт после последней целой записи");
+            channel.truncate(position);
+        }
+        end = position;
+    }
+
+    private void apply(long key, long offset, int length) {
+        int slot = index.find(key);
+        if (index.keys[slot] == key) {
+            liveBytes -= HEADER + index.lengths[slot];
+        }
+        if (length < 0) {
+            index.remove(slot);
+            return;
+        }
+        if (index.keys[slot] != key && (index.size + 1) * 2 > index.keys.length) {
+            index = index.grow();
+        }
+        index.put(key, offset, length);
+        liveBytes += HEADER + length;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Запись за концом журнала: " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static int crc(byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(value, 0, value.length);
+        return (int) crc.getValue();
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    // Ключ -> смещение записи и длина значения; линейное пробирование, удаление со сдвигом
+    private static final class Index {
+        final long[] keys;
+        final long[] offsets;
+        final int[] lengths;
+        int size;
+
+        // capacity - степень двойки
+        Index(int capacity) {
+            keys = new long[capacity];
+            offsets = new long[capacity];
+            lengths = new int[capacity];
+        }
+
+        int find(long key) {
+            if (key == 0) {
+                throw new IllegalArgumentException("Ключ 0 не допускается");
+            }
+            int mask = keys.length - 1;
+            int slot = (int) mix(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void put(long key, long offset, int length) {
+            int slot = find(key);
+            if (keys[slot] != key) {
+                keys[slot] = key;
+                size++;
+            }
+            offsets[slot] = offset;
+            lengths[slot] = length;
+        }
+
+        // Записи за удаленной сдвигаются назад, чтобы цепочки пробирования не рвались
+        void remove(int slot) {
+            if (keys[slot] == 0) {
+                return;
+            }
+            int mask = keys.length - 1;
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (keys[next] == 0) {
+                    break;
+                }
+                int home = (int) mix(keys[next]) & mask;
+                // Запись остается на месте, если ее исходная ячейка циклически в (hole, next]
+                boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if (!stays) {
+                    keys[hole] = keys[next];
+                    offsets[hole] = offsets[next];
+                    lengths[hole] = lengths[next];
+                    hole = next;
+                }
+            }
+            keys[hole] = 0;
+            size--;
+        }
+
+        Index grow() {
+            Index bigger = new Index(keys.length * 2);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    bigger.put(keys[slot], offsets[slot], lengths[slot]);
+                }
+            }
+            return bigger;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.telegrambot;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+
+// Хранилище сессий бота. Сессия чата читается и меняется только в шарде обработчиков этого чата;
+// после изменения ее нужно вернуть в хранилище через put (или изменить внутри compute) -
+// иначе хранилище с диском не узнает об изменении
+interface SessionStore {
+
+    // null - сессии нет
+    UserSession get(long chatId);
+
+    UserSession getOrCreate(long chatId, LongFunction<UserSession> factory);
+
+    // Загрузка без блокировки вызывающего потока: обновление еще ждет в очереди, а сессия уже читается
+    CompletableFuture<UserSession> getAsync(long chatId);
+
+    // Сессии нескольких чатов; отсутствующих в результате нет
+    Map<Long, UserSession> getAll(Collection<Long> chatIds);
+
+    // function получает текущую сессию или null; результат сохраняется, null - сессия удаляется
+    UserSession compute(long chatId, BiFunction<Long, UserSession, UserSession> function);
+
+    void put(long chatId, UserSession session);
+
+    void putAll(Map<Long, UserSession> sessions);
+
+    UserSession remove(long chatId);
+
+    // Все известные чаты, и в памяти, и на диске
+    List<Long> chats();
+
+    // Последняя версия каждой сессии, без загрузки в память: для перебора всех пользователей
+    void forEachSession(BiConsumer<Long, UserSession> action);
+
+    int size();
+
+    // Несохраненные изменения записываются до возврата
+    void close();
+}
@@ -0,0 +1,93 @@
+package com.example.telegrambot;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Разбор фильтра вида "hp > 500, price < 80k, купе, BMW" в условия для SpecStore.
+// Условия разделяются запятыми; марки и категории внутри одного поля объединяются через "или"
+final class SpecFilter {
+
+    private static final Pattern COMPARISON =
+            Pattern.compile("(\\S+?)\\s*(>=|<=|>|<|=)\\s*(\\d+)\\s*([kк])?", Pattern.CASE_INSENSITIVE);
+
+    private static final Map<String, SpecStore.Field> FIELDS = new HashMap<>();
+    private static final Map<String, String> CATEGORY_ALIASES = new HashMap<>();
+
+    static {
+        for (String alias : Arrays.asList("hp", "лс", "л.с.", "мощность")) {
+            FIELDS.put(alias, SpecStore.Field.HORSEPOWER);
+        }
+        for (String alias : Arrays.asList("price", "цена", "$")) {
+            FIELDS.put(alias, SpecStore.Field.PRICE);
+        }
+        for (String alias : Arrays.asList("year", "год")) {
+            FIELDS.put(alias, SpecStore.Field.YEAR);
+        }
+        CATEGORY_ALIASES.put("sedan", "седан");
+        CATEGORY_ALIASES.put("suv", "внедорожник");
+        CATEGORY_ALIASES.put("coupe", "купе");
+        CATEGORY_ALIASES.put("pickup", "пикап");
+        CATEGORY_ALIASES.put("muscle", "маслкар");
+    }
+
+    private final List<Integer> brands = new ArrayList<>();
+    private final List<Integer> categories = new ArrayList<>();
+    private final List<SpecStore.Range> ranges = new ArrayList<>();
+
+    private SpecFilter() {
+    }
+
+    // IllegalArgumentException с текстом непонятого условия
+    static SpecFilter parse(String text, SpecStore specs) {
+        SpecFilter filter = new SpecFilter();
+        for (String part : text.split(",")) {
+            String clause = part.trim();
+            if (clause.isEmpty()) {
+                continue;
+            }
+            Matcher matcher = COMPARISON.matcher(clause);
+            if (matcher.matches()) {
+                SpecStore.Field field = FIELDS.get(matcher.group(1).toLowerCase(Locale.ROOT));
+                if (field == null) {
+                    throw new IllegalArgumentException(clause);
+                }
+                long value = Long.parseLong(matcher.group(3)) * (matcher.group(4) != null ? 1000 : 1);
+                int bound = (int) Math.min(Integer.MAX_VALUE - 1, value);
+                filter.ranges.add(range(field, matcher.group(2), bound));
+                continue;
+            }
+            String lower = clause.toLowerCase(Locale.ROOT);
+            int category = specs.categoryId(CATEGORY_ALIASES.getOrDefault(lower, lower));
+            if (category >= 0) {
+                filter.categories.add(category);
+                continue;
+            }
+            int brand = specs.brandId(clause);
+            if (brand >= 0) {
+                filter.brands.add(brand);
+                continue;
+            }
+            throw new IllegalArgumentException(clause);
+        }
+        return filter;
+    }
+
+    boolean isEmpty() {
+        return brands.isEmpty() && categories.isEmpty() && ranges.isEmpty();
+    }
+
+    BitSet apply(SpecStore specs) {
+        return specs.filter(brands, categories, ranges);
+    }
+
+    private static SpecStore.Range range(SpecStore.Field field, String operator, int value) {
+        switch (operator) {
+            case ">": return new SpecStore.Range(field, value + 1, Integer.MAX_VALUE);
+            case ">=": return new SpecStore.Range(field, value, Integer.MAX_VALUE);
+            case "<": return new SpecStore.Range(field, Integer.MIN_VALUE, value - 1);
+            case "<=": return new SpecStore.Range(field, Integer.MIN_VALUE, value);
+            default: return new SpecStore.Range(field, value, value);
+        }
+    }
+}
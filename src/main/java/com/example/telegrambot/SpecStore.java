@@ -0,0 +1,393 @@
+package com.example.telegrambot;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Характеристики моделей по столбцам: номер модели -> год, мощность, цена, марка, категория.
+// Строится вместе с каталогом. Для фильтров есть битовые индексы по марке и категории
+// и отсортированные индексы по числовым полям
+final class SpecStore {
+
+    static final String MUSCLE_CATEGORY = "маслкар";
+    // Списков моделей на одну задачу при построении
+    private static final int RUNS_PER_TASK = 8;
+
+    // Вектор признаков модели фиксированной ширины; векторы всех моделей лежат в одном массиве
+    static final int F_BRAND = 0;
+    static final int F_CATEGORY = 1;
+    static final int F_YEAR = 2;
+    static final int F_HORSEPOWER = 3;
+    static final int F_PRICE = 4;
+    static final int F_FLAGS = 5;
+    static final int FEATURES = 6;
+    static final int FLAG_MUSCLE = 1;
+
+    enum Field {
+        YEAR, HORSEPOWER, PRICE
+    }
+
+    // Условие на числовое поле: min <= значение <= max
+    static final class Range {
+        final Field field;
+        final int min;
+        final int max;
+
+        Range(Field field, int min, int max) {
+            this.field = field;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    private final String[] models;
+    private final String[] brandNames;
+    private final String[] categoryNames;
+    private final int[] brand;
+    private final int[] category;
+    private final int[] year;
+    private final int[] horsepower;
+    private final int[] price;
+    private final Map<String, Integer> ids;
+    private final int[] features;
+    private final int[] brandCounts;
+    private final int[] categoryCounts;
+
+    private final BitSet[] byBrand;
+    private final BitSet[] byCategory;
+    private final BitSet muscle;
+    // Номера моделей, упорядоченные по значению поля, и сами значения в том же порядке
+    private final int[][] sortedIds = new int[Field.values().length][];
+    private final int[][] sortedValues = new int[Field.values().length][];
+
+    // Номера моделей идут по маркам, внутри марки - по категориям, поэтому множества
+    // марок и категорий складываются из непрерывных отрезков
+    private SpecStore(String[] models, List<String> brandNames, List<String> categoryNames,
+                      int[] brand, int[] category) {
+        int n = models.length;
+        this.models = models;
+        this.brandNames = brandNames.toArray(new String[0]);
+        this.categoryNames = categoryNames.toArray(new String[0]);
+        this.brand = brand;
+        this.category = category;
+        this.year = new int[n];
+        this.horsepower = new int[n];
+        this.price = new int[n];
+
+        this.byBrand = new BitSet[this.brandNames.length];
+        this.byCategory = new BitSet[this.categoryNames.length];
+        for (int i = 0; i < byBrand.length; i++) {
+            byBrand[i] = new BitSet();
+        }
+        for (int i = 0; i < byCategory.length; i++) {
+            byCategory[i] = new BitSet(n);
+        }
+        int muscleId = categoryNames.indexOf(MUSCLE_CATEGORY);
+        this.muscle = muscleId >= 0 ? byCategory[muscleId] : new BitSet();
+
+        this.brandCounts = new int[this.brandNames.length];
+        this.categoryCounts = new int[this.categoryNames.length];
+        int runStart = 0;
+        for (int id = 1; id <= n; id++) {
+            if (id == n || brand[id] != brand[runStart] || category[id] != category[runStart]) {
+                byBrand[brand[runStart]].set(runStart, id);
+                byCategory[category[runStart]].set(runStart, id);
+                brandCounts[brand[runStart]] += id - runStart;
+                categoryCounts[category[runStart]] += id - runStart;
+                runStart = id;
+            }
+        }
+
+        // При совпадающих названиях побеждает меньший номер, как при последовательной вставке
+        ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>(n * 2);
+        CatalogTasks.forEach(n, (from, to) -> {
+            for (int id = from; id < to; id++) {
+                ids.merge(models[id], id, Math::min);
+            }
+        });
+        this.ids = ids;
+
+        CatalogTasks.forEach(n, (from, to) -> {
+            for (int id = from; id < to; id++) {
+                generateSpecs(id);
+            }
+        });
+        for (Field field : Field.values()) {
+            buildRangeIndex(field);
+        }
+        this.features = new int[n * FEATURES];
+        CatalogTasks.forEach(n, (from, to) -> {
+            for (int id = from; id < to; id++) {
+                int f = id * FEATURES;
+                features[f + F_BRAND] = brand[id];
+                features[f + F_CATEGORY] = category[id];
+                features[f + F_YEAR] = year[id];
+                features[f + F_HORSEPOWER] = horsepower[id];
+                features[f + F_PRICE] = price[id];
+                features[f + F_FLAGS] = muscle.get(id) ? FLAG_MUSCLE : 0;
+            }
+        });
+    }
+
+    static SpecStore build(CarCatalog catalog) {
+        List<String> brandNames = new ArrayList<>(new TreeSet<>(catalog.getCars().keySet()));
+        List<String> categoryNames = new ArrayList<>(CarCatalog.CATEGORIES);
+        for (MyBotService.CarInfo<String> info : catalog.getCars().values()) {
+            for (String name : info.getModels().keySet()) {
+                if (!categoryNames.contains(name)) {
+                    categoryNames.add(name);
+                }
+            }
+        }
+
+        // Списки моделей в порядке (марка, категория); каждый список - отдельная задача
+        int categoryCount = categoryNames.size();
+        int runCount = brandNames.size() * categoryCount;
+        List<List<String>> runs = new ArrayList<>(runCount);
+        for (String brandName : brandNames) {
+            Map<String, List<String>> byCategory = catalog.getCars().get(brandName).getModels();
+            for (String categoryName : categoryNames) {
+                runs.add(byCategory.getOrDefault(categoryName, Collections.emptyList()));
+            }
+        }
+        int[] offsets = new int[runCount + 1];
+        CatalogTasks.forEach(runCount, RUNS_PER_TASK, (from, to) -> {
+            for (int r = from; r < to; r++) {
+                int count = 0;
+                for (String model : runs.get(r)) {
+                    if (!model.equals(CarCatalog.NOT_AVAILABLE)) {
+                        count++;
+                    }
+                }
+                offsets[r + 1] = count;
+            }
+        });
+        for (int r = 0; r < runCount; r++) {
+            offsets[r + 1] += offsets[r];
+        }
+
+        int n = offsets[runCount];
+        String[] models = new String[n];
+        int[] brand = new int[n];
+        int[] category = new int[n];
+        CatalogTasks.forEach(runCount, RUNS_PER_TASK, (from, to) -> {
+            for (int r = from; r < to; r++) {
+                int id = offsets[r];
+                for (String model : runs.get(r)) {
+                    if (!model.equals(CarCatalog.NOT_AVAILABLE)) {
+                        models[id++] = model;
+                    }
+                }
+                Arrays.fill(brand, offsets[r], id, r / categoryCount);
+                Arrays.fill(category, offsets[r], id, r % categoryCount);
+            }
+        });
+        return new SpecStore(models, brandNames, categoryNames, brand, category);
+    }
+
+    int size() {
+        return models.length;
+    }
+
+    // -1, если модели нет в каталоге
+    int idOf(String model) {
+        Integer id = ids.get(model);
+        return id != null ? id : -1;
+    }
+
+    String model(int id) { return models[id]; }
+    String brand(int id) { return brandNames[brand[id]]; }
+    String category(int id) { return categoryNames[category[id]]; }
+    int year(int id) { return year[id]; }
+    int horsepower(int id) { return horsepower[id]; }
+    int price(int id) { return price[id]; }
+
+    String brandName(int brandId) { return brandNames[brandId]; }
+    String categoryName(int categoryId) { return categoryNames[categoryId]; }
+    int brandCount() { return brandNames.length; }
+    int categoryCount() { return categoryNames.length; }
+    int modelsOfBrand(int brandId) { return brandCounts[brandId]; }
+    int modelsInCategory(int categoryId) { return categoryCounts[categoryId]; }
+
+    // Модели марки (точное название) в порядке категорий; отрезок номеров непрерывный
+    List<String> brandModels(String brandName) {
+        int brandId = Arrays.binarySearch(brandNames, brandName);
+        int from = brandId >= 0 ? byBrand[brandId].nextSetBit(0) : -1;
+        if (from < 0) {
+            return new ArrayList<>();
+        }
+        BitSet set = byBrand[brandId];
+        return new ArrayList<>(Arrays.asList(models).subList(from, set.nextClearBit(from)));
+    }
+
+    // Модели, название которых в нижнем регистре содержит lowerKeyword: без повторов, по алфавиту.
+    // Куски каталога просматриваются параллельно, найденные номера склеиваются по порядку
+    List<String> search(String lowerKeyword) {
+        int[] found = CatalogTasks.reduce(models.length, (from, to) -> {
+            int[] matches = new int[16];
+            int count = 0;
+            for (int id = from; id < to; id++) {
+                if (models[id].toLowerCase(Locale.ROOT).contains(lowerKeyword)) {
+                    if (count == matches.length) {
+                        matches = Arrays.copyOf(matches, count * 2);
+                    }
+                    matches[count++] = id;
+                }
+            }
+            return Arrays.copyOf(matches, count);
+        }, (left, right) -> {
+            int[] joined = Arrays.copyOf(left, left.length + right.length);
+            System.arraycopy(right, 0, joined, left.length, right.length);
+            return joined;
+        });
+
+        String[] names = new String[found.length];
+        for (int i = 0; i < found.length; i++) {
+            names[i] = models[found[i]];
+        }
+        Arrays.parallelSort(names);
+        List<String> result = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            if (i == 0 || !names[i].equals(names[i - 1])) {
+                result.add(names[i]);
+            }
+        }
+        return result;
+    }
+
+    // Векторы признаков для набора моделей подряд: result[i * FEATURES + F_...]
+    int[] features(int[] modelIds) {
+        int[] result = new int[modelIds.length * FEATURES];
+        for (int i = 0; i < modelIds.length; i++) {
+            System.arraycopy(features, modelIds[i] * FEATURES, result, i * FEATURES, FEATURES);
+        }
+        return result;
+    }
+
+    boolean isMuscle(int id) {
+        return id >= 0 && muscle.get(id);
+    }
+
+    // Номер марки или категории по названию без учета регистра; -1 - не найдено
+    int brandId(String name) {
+        return indexOfIgnoreCase(brandNames, name);
+    }
+
+    int categoryId(String name) {
+        return indexOfIgnoreCase(categoryNames, name);
+    }
+
+    // Пересечение условий: сначала битовые множества, затем диапазоны. Узкий диапазон
+    // превращается в множество по отсортированному индексу, а если кандидатов уже мало -
+    // кандидаты проверяются по столбцу напрямую
+    BitSet filter(List<Integer> brands, List<Integer> categories, List<Range> ranges) {
+        BitSet result = new BitSet(models.length);
+        result.set(0, models.length);
+        if (!brands.isEmpty()) {
+            result.and(union(byBrand, brands));
+        }
+        if (!categories.isEmpty()) {
+            result.and(union(byCategory, categories));
+        }
+        for (Range range : ranges) {
+            int f = range.field.ordinal();
+            int from = lowerBound(sortedValues[f], range.min);
+            int to = range.max == Integer.MAX_VALUE ? models.length : lowerBound(sortedValues[f], range.max + 1);
+            int[] column = column(range.field);
+            if (result.cardinality() < to - from) {
+                for (int id = result.nextSetBit(0); id >= 0; id = result.nextSetBit(id + 1)) {
+                    if (column[id] < range.min || column[id] > range.max) {
+                        result.clear(id);
+                    }
+                }
+            } else {
+                BitSet slice = new BitSet(models.length);
+                for (int i = from; i < to; i++) {
+                    slice.set(sortedIds[f][i]);
+                }
+                result.and(slice);
+            }
+        }
+        return result;
+    }
+
+    private static BitSet union(BitSet[] sets, List<Integer> selected) {
+        BitSet union = new BitSet();
+        for (int id : selected) {
+            union.or(sets[id]);
+        }
+        return union;
+    }
+
+    private int[] column(Field field) {
+        switch (field) {
+            case YEAR: return year;
+            case HORSEPOWER: return horsepower;
+            default: return price;
+        }
+    }
+
+    // Характеристики детерминированы по марке и модели: одна и та же модель всегда выглядит одинаково
+    private void generateSpecs(int id) {
+        long h = (brand(id) + "/" + models[id]).hashCode() * 0x9E3779B97F4A7C15L;
+        boolean isMuscle = muscle.get(id);
+        year[id] = 2000 + (int) next(h, 1, 25);
+        horsepower[id] = isMuscle ? 400 + (int) next(h, 2, 400) : 150 + (int) next(h, 2, 250);
+        // Цена округлена до сотен долларов
+        price[id] = (isMuscle ? 50000 + (int) next(h, 3, 100000) : 30000 + (int) next(h, 3, 50000)) / 100 * 100;
+    }
+
+    private static long next(long seed, int stream, int bound) {
+        long z = seed + stream * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 1) % bound;
+    }
+
+    private void buildRangeIndex(Field field) {
+        int[] column = column(field);
+        int n = column.length;
+        // Сортировка пар (значение, номер), упакованных в long
+        long[] packed = new long[n];
+        CatalogTasks.forEach(n, (from, to) -> {
+            for (int id = from; id < to; id++) {
+                packed[id] = ((long) column[id] << 32) | id;
+            }
+        });
+        Arrays.parallelSort(packed);
+        int[] ids = new int[n];
+        int[] values = new int[n];
+        CatalogTasks.forEach(n, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                ids[i] = (int) packed[i];
+                values[i] = (int) (packed[i] >>> 32);
+            }
+        });
+        sortedIds[field.ordinal()] = ids;
+        sortedValues[field.ordinal()] = values;
+    }
+
+    // Первая позиция со значением >= key
+    private static int lowerBound(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int indexOfIgnoreCase(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
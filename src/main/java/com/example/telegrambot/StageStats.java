@@ -0,0 +1,63 @@
+package com.example.telegrambot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+// Счетчики и датчики одной стадии конвейера
+final class StageStats {
+
+    private final String name;
+    private final IntSupplier depth;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder queueNanos = new LongAdder();
+    private final LongAdder serviceNanos = new LongAdder();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    StageStats(String name, IntSupplier depth) {
+        this.name = name;
+        this.depth = depth;
+    }
+
+    void onAccepted() {
+        accepted.increment();
+    }
+
+    void onRejected() {
+        rejected.increment();
+    }
+
+    void onProcessed(long queuedNanos, long serviceNanos) {
+        processed.increment();
+        queueNanos.add(queuedNanos);
+        this.serviceNanos.add(serviceNanos);
+        maxQueueNanos.accumulateAndGet(queuedNanos, Math::max);
+    }
+
+    String getName() { return name; }
+    int getDepth() { return depth.getAsInt(); }
+    long getAccepted() { return accepted.sum(); }
+    long getRejected() { return rejected.sum(); }
+    long getProcessed() { return processed.sum(); }
+
+    long getAverageQueueNanos() {
+        long count = processed.sum();
+        return count == 0 ? 0 : queueNanos.sum() / count;
+    }
+
+    long getAverageServiceNanos() {
+        long count = processed.sum();
+        return count == 0 ? 0 : serviceNanos.sum() / count;
+    }
+
+    long getMaxQueueNanos() { return maxQueueNanos.get(); }
+
+    @Override
+    public String toString() {
+        return String.format("%s: depth=%d accepted=%d rejected=%d processed=%d queue=%dµs service=%dµs",
+                name, getDepth(), getAccepted(), getRejected(), getProcessed(),
+                getAverageQueueNanos() / 1000, getAverageServiceNanos() / 1000);
+    }
+}
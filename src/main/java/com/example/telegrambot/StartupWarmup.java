@@ -0,0 +1,177 @@
+package com.example.telegrambot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Прогрев перед подключением к Telegram: отдельный бот на общем BotRuntime гоняет синтетические сценарии
+// по всем маршрутам (каталог, страницы, поиск, подбор, сравнение, викторина, избранное) против локальной
+// заглушки Bot API. JIT компилирует маршрутизацию, отрисовку, потоки и сериализацию запросов, общий кэш
+// отрисовки заполняется настоящими ответами. Сессии прогрева только в памяти, на диск и в аналитику не попадают.
+// Бот прогрева отключается от BotRuntime в конце: вызывать, когда боты процесса уже созданы
+final class StartupWarmup {
+
+    // Ожидание ответа на шаг: без ответа чат переходит к следующему шагу
+    private static final long STEP_TIMEOUT_MILLIS = 2000;
+    private static final String[] FILTERS = {
+            "hp > 300, price < 80k", "купе, год >= 2015", "внедорожник, цена <= 60000", "hp > 5000"
+    };
+
+    private final BotRuntime runtime;
+    private final int chats;
+    private final long durationMillis;
+    private final Map<Long, Semaphore> responses = new ConcurrentHashMap<>();
+    // Кнопка ответа из последнего вопроса викторины чата: ответ снимает таймер вопроса
+    private final Map<Long, String> quizAnswers = new ConcurrentHashMap<>();
+    // Первый проход сценария (холодный код) и проходы последней четверти времени
+    private final LatencyHistogram cold = new LatencyHistogram();
+    private final LatencyHistogram warm = new LatencyHistogram();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    StartupWarmup(BotRuntime runtime, int chats, long durationMillis) {
+        this.runtime = runtime;
+        this.chats = chats;
+        this.durationMillis = durationMillis;
+    }
+
+    // Итог прогрева одной строкой
+    String run() throws IOException, InterruptedException {
+        StubTelegramApi stub = new StubTelegramApi(0, 8).start();
+        stub.setListener(this::onResponse);
+        BotConfig config = new BotConfig();
+        config.setName("warmup");
+        config.setToken("warmup");
+        config.setApiUrl(stub.getApiUrl());
+        config.setRateLimitBurst(1_000_000);
+        config.setRateLimitPerSecond(1_000_000);
+        MyBot bot = new MyBot(config, runtime);
+
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long warmFrom = deadline - TimeUnit.MILLISECONDS.toNanos(durationMillis / 4);
+        List<Thread> users = new ArrayList<>();
+        for (int i = 1; i <= chats; i++) {
+            long chatId = i;
+            responses.put(chatId, new Semaphore(0));
+            Thread user = new Thread(() -> virtualUser(bot, chatId, deadline, warmFrom), "warmup-" + i);
+            user.setDaemon(true);
+            users.add(user);
+        }
+        users.forEach(Thread::start);
+        for (Thread user : users) {
+            user.join();
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        // Второй вызов ответа на кнопку (после answerCallbackQuery) может быть еще в очереди отправки
+        long drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STEP_TIMEOUT_MILLIS);
+        while (!(idle(runtime.getHandlers().getStats()) && idle(runtime.getOutbound().getStats()))
+                && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        bot.onClosing();
+        stub.stop();
+
+        return String.format("%d обновлений за %.1f с, без ответа %d; p50 %.2f -> %.2f мс, p99 %.2f -> %.2f мс",
+                updates.sum(), elapsed / 1000.0, timeouts.sum(),
+                cold.valueAtPercentile(50) / 1000.0, warm.valueAtPercentile(50) / 1000.0,
+                cold.valueAtPercentile(99) / 1000.0, warm.valueAtPercentile(99) / 1000.0);
+    }
+
+    // Обработано все принятое; processed читается первым, чтобы не принять очередь за пустую
+    private static boolean idle(StageStats stats) {
+        long processed = stats.getProcessed();
+        return processed >= stats.getAccepted();
+    }
+
+    private void onResponse(String method, long chatId, int status, JsonNode body) {
+        for (JsonNode row : body.path("reply_markup").path("inline_keyboard")) {
+            for (JsonNode button : row) {
+                String data = button.path("callback_data").asText();
+                if (data.startsWith("quiz_")) {
+                    quizAnswers.put(chatId, data);
+                }
+            }
+        }
+        Semaphore semaphore = responses.get(chatId);
+        if (semaphore != null) {
+            semaphore.release();
+        }
+    }
+
+    private void virtualUser(MyBot bot, long chatId, long deadline, long warmFrom) {
+        Random random = new Random(chatId);
+        boolean first = true;
+        try {
+            while (System.nanoTime() < deadline) {
+                LatencyHistogram latency = first ? cold : System.nanoTime() >= warmFrom ? warm : null;
+                for (Update update : scenario(chatId, random)) {
+                    step(bot, chatId, update, latency);
+                }
+                step(bot, chatId, LoadTestHarness.text(chatId, "/quiz"), latency);
+                String answer = quizAnswers.remove(chatId);
+                if (answer != null) {
+                    step(bot, chatId, LoadTestHarness.callback(chatId, answer), latency);
+                }
+                first = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Обновление и ожидание первого вызова API в ответ; лишние ответы прошлого шага сбрасываются
+    private void step(MyBot bot, long chatId, Update update, LatencyHistogram latency) throws InterruptedException {
+        Semaphore semaphore = responses.get(chatId);
+        semaphore.drainPermits();
+        long sent = System.nanoTime();
+        bot.onUpdateReceived(update);
+        if (semaphore.tryAcquire(STEP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (latency != null) {
+                latency.recordNanos(System.nanoTime() - sent);
+            }
+        } else {
+            timeouts.increment();
+        }
+        updates.increment();
+    }
+
+    private static List<Update> scenario(long chatId, Random random) {
+        List<String> brands = MyBotService.getAllBrands();
+        String brand = brands.get(random.nextInt(brands.size()));
+        List<String> categories = new ArrayList<>(MyBotService.getCarCategories(brand).keySet());
+        String category = categories.get(random.nextInt(categories.size()));
+        List<String> models = MyBotService.getAvailableModels(brand, category);
+        String model = models.get(random.nextInt(models.size()));
+        String other = models.get(random.nextInt(models.size()));
+
+        return Arrays.asList(
+                LoadTestHarness.text(chatId, "/start"),
+                LoadTestHarness.text(chatId, "/brands"),
+                LoadTestHarness.callback(chatId, "brand_" + brand),
+                LoadTestHarness.callback(chatId, "category_" + category),
+                LoadTestHarness.callback(chatId, "page_" + brand + "_" + category + "_1"),
+                LoadTestHarness.callback(chatId, "model_" + model),
+                LoadTestHarness.callback(chatId, "favorite_" + model),
+                LoadTestHarness.text(chatId, "/favorites"),
+                LoadTestHarness.text(chatId, "/stats"),
+                LoadTestHarness.text(chatId, "/search"),
+                LoadTestHarness.text(chatId, model.substring(0, Math.min(3, model.length()))),
+                LoadTestHarness.text(chatId, "/filter"),
+                LoadTestHarness.text(chatId, FILTERS[random.nextInt(FILTERS.length)]),
+                LoadTestHarness.text(chatId, "/compare"),
+                LoadTestHarness.text(chatId, model + ", " + other),
+                LoadTestHarness.text(chatId, "/random"),
+                LoadTestHarness.text(chatId, "/top"));
+    }
+}
@@ -0,0 +1,324 @@
+package com.example.telegrambot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Локальная заглушка Bot API для нагрузочных тестов: sendMessage, editMessageText, sendPhoto, answerCallbackQuery,
+// getUpdates (обновления ставятся в очередь через enqueueUpdate). Умеет добавлять задержку,
+// отвечать 429 с заданной вероятностью и 403 для «заблокировавших» чатов
+final class StubTelegramApi {
+
+    interface Listener {
+        // status - HTTP-статус ответа заглушки (200 или 429)
+        void onRequest(String method, long chatId, int status, JsonNode body);
+    }
+
+    static {
+        // Без TCP_NODELAY встроенный HTTP-сервер добавляет десятки миллисекунд к каждому ответу
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicInteger messageIds = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder tooManyRequests = new LongAdder();
+    private final AtomicInteger photoIds = new AtomicInteger();
+    private final Set<String> issuedFileIds = ConcurrentHashMap.newKeySet();
+    private final LongAdder photoUploads = new LongAdder();
+    private final LongAdder photoReuses = new LongAdder();
+
+    private volatile long latencyMicros;
+    private volatile long jitterMicros;
+    private volatile double tooManyRequestsRate;
+    // Чаты, «заблокировавшие» бота: на любой вызов - 403
+    private final Set<Long> blockedChats = ConcurrentHashMap.newKeySet();
+    private volatile Listener listener = (method, chatId, status, body) -> { };
+    // Очередь для getUpdates: обновление удаляется, когда клиент подтвердит его offset
+    private final Deque<ObjectNode> updates = new ArrayDeque<>();
+    private long lastUpdateId;
+
+    StubTelegramApi(int port, int threads) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "stub-api");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    StubTelegramApi start() {
+        server.start();
+        return this;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Адрес для BotConfig.setApiUrl
+    String getApiUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+    }
+
+    void setLatency(long latencyMicros, long jitterMicros) {
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+    }
+
+    void setTooManyRequestsRate(double rate) {
+        this.tooManyRequestsRate = rate;
+    }
+
+    void blockChat(long chatId) {
+        blockedChats.add(chatId);
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Обновление для опрашивающего бота; update_id назначается заново по порядку
+    void enqueueUpdate(Update update) {
+        ObjectNode node = MAPPER.valueToTree(update);
+        synchronized (updates) {
+            node.put("update_id", ++lastUpdateId);
+            updates.add(node);
+            updates.notifyAll();
+        }
+    }
+
+    // Длинный опрос: ждет до timeout секунд, пока не появятся обновления с update_id >= offset
+    private ObjectNode getUpdates(JsonNode request) {
+        long offset = request.path("offset").asLong();
+        int limit = request.path("limit").asInt(100);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(request.path("timeout").asInt());
+        ObjectNode response = MAPPER.createObjectNode();
+        response.put("ok", true);
+        synchronized (updates) {
+            while (!updates.isEmpty() && updates.peekFirst().get("update_id").asLong() < offset) {
+                updates.pollFirst();
+            }
+            long wait;
+            while (updates.isEmpty() && (wait = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(updates, wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            ArrayNode result = response.putArray("result");
+            for (ObjectNode update : updates) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                result.add(update);
+            }
+        }
+        return response;
+    }
+
+    long getRequests() { return requests.sum(); }
+    long getTooManyRequests() { return tooManyRequests.sum(); }
+    long getPhotoUploads() { return photoUploads.sum(); }
+    long getPhotoReuses() { return photoReuses.sum(); }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        String path = exchange.getRequestURI().getPath();
+        // Библиотека пишет имя метода в нижнем регистре: /bot<token>/sendmessage
+        String method = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+
+        JsonNode body;
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readAllBytes();
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType != null && contentType.startsWith("multipart/form-data")) {
+                String boundary = contentType.substring(contentType.indexOf("boundary=") + 9);
+                body = multipart(bytes, boundary.split(";")[0].trim());
+            } else {
+                body = bytes.length == 0 ? MAPPER.createObjectNode() : MAPPER.readTree(bytes);
+            }
+        } catch (IOException e) {
+            body = MAPPER.createObjectNode();
+        }
+
+        if (method.equals("getupdates")) {
+            respond(exchange, 200, getUpdates(body));
+            return;
+        }
+        simulateLatency();
+
+        long chatId = body.path("chat_id").asLong();
+        if (tooManyRequestsRate > 0 && ThreadLocalRandom.current().nextDouble() < tooManyRequestsRate) {
+            tooManyRequests.increment();
+            ObjectNode error = MAPPER.createObjectNode();
+            error.put("ok", false);
+            error.put("error_code", 429);
+            error.put("description", "Too Many Requests: retry after 1");
+            error.putObject("parameters").put("retry_after", 1);
+            listener.onRequest(method, chatId, 429, body);
+            respond(exchange, 429, error);
+            return;
+        }
+
+        if (blockedChats.contains(chatId)) {
+            ObjectNode error = MAPPER.createObjectNode();
+            error.put("ok", false);
+            error.put("error_code", 403);
+            error.put("description", "Forbidden: bot was blocked by the user");
+            listener.onRequest(method, chatId, 403, body);
+            respond(exchange, 403, error);
+            return;
+        }
+
+        ObjectNode response = MAPPER.createObjectNode();
+        response.put("ok", true);
+        switch (method) {
+            case "sendmessage":
+            case "editmessagetext":
+                response.set("result", message(body, chatId));
+                break;
+            case "sendphoto": {
+                String fileId = photoFileId(body, body.path("photo"));
+                if (fileId == null) {
+                    ObjectNode error = MAPPER.createObjectNode();
+                    error.put("ok", false);
+                    error.put("error_code", 400);
+                    error.put("description", "Bad Request: wrong file identifier/HTTP URL specified");
+                    listener.onRequest(method, chatId, 400, body);
+                    respond(exchange, 400, error);
+                    return;
+                }
+                ObjectNode message = message(body, chatId);
+                message.put("caption", body.path("caption").asText(""));
+                ObjectNode size = message.putArray("photo").addObject();
+                size.put("file_id", fileId);
+                size.put("file_unique_id", fileId);
+                size.put("width", 1280);
+                size.put("height", 960);
+                response.set("result", message);
+                break;
+            }
+            default:
+                response.put("result", true);
+                break;
+        }
+        // Слушатель вызывается до ответа, иначе следующий запрос того же чата может его обогнать
+        listener.onRequest(method, chatId, 200, body);
+        respond(exchange, 200, response);
+    }
+
+    // Загруженный файл получает новый file_id; строка должна быть ранее выданным file_id, иначе null.
+    // Новый файл библиотека передает отдельной частью, а в поле photo пишет "attach://<имя части>"
+    private String photoFileId(JsonNode request, JsonNode photo) {
+        if (photo.asText().startsWith("attach://")) {
+            photo = request.path(photo.asText().substring("attach://".length()));
+        }
+        if (photo.isObject()) {
+            photoUploads.increment();
+            String fileId = "stub-photo-" + photoIds.incrementAndGet();
+            issuedFileIds.add(fileId);
+            return fileId;
+        }
+        if (issuedFileIds.contains(photo.asText())) {
+            photoReuses.increment();
+            return photo.asText();
+        }
+        return null;
+    }
+
+    // Разбор multipart/form-data (так библиотека отправляет sendPhoto): текстовые поля - строки,
+    // файлы - объекты с именем и размером
+    private static ObjectNode multipart(byte[] bytes, String boundary) {
+        ObjectNode fields = MAPPER.createObjectNode();
+        String content = new String(bytes, StandardCharsets.ISO_8859_1);
+        for (String part : content.split("--" + Pattern.quote(boundary))) {
+            int headersEnd = part.indexOf("\r\n\r\n");
+            if (headersEnd < 0) {
+                continue;
+            }
+            String headers = part.substring(0, headersEnd);
+            String value = part.substring(headersEnd + 4, Math.max(headersEnd + 4, part.length() - 2));
+            Matcher name = Pattern.compile("name=\"([^\"]*)\"").matcher(headers);
+            if (!name.find()) {
+                continue;
+            }
+            Matcher fileName = Pattern.compile("filename=\"([^\"]*)\"").matcher(headers);
+            if (fileName.find()) {
+                ObjectNode file = fields.putObject(name.group(1));
+                file.put("file_name", fileName.group(1));
+                file.put("size", value.length());
+            } else {
+                fields.put(name.group(1), new String(value.getBytes(StandardCharsets.ISO_8859_1),
+                        StandardCharsets.UTF_8));
+            }
+        }
+        return fields;
+    }
+
+    private ObjectNode message(JsonNode request, long chatId) {
+        ObjectNode message = MAPPER.createObjectNode();
+        int messageId = request.has("message_id") ? request.get("message_id").asInt() : messageIds.incrementAndGet();
+        message.put("message_id", messageId);
+        message.put("date", (int) (System.currentTimeMillis() / 1000));
+        ObjectNode chat = message.putObject("chat");
+        chat.put("id", chatId);
+        chat.put("type", "private");
+        message.put("text", request.path("text").asText(""));
+        return message;
+    }
+
+    private void simulateLatency() {
+        long delay = latencyMicros;
+        if (jitterMicros > 0) {
+            delay += ThreadLocalRandom.current().nextLong(jitterMicros);
+        }
+        if (delay > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonNode json) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(json);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.example.telegrambot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.LongFunction;
+import java.util.function.Predicate;
+
+// Сессии на диске (SessionLog) с горячим уровнем в памяти перед ним.
+// Чтение насквозь: промах горячего уровня читает несохраненные изменения, затем журнал.
+// Запись отложенная: put сразу сериализует сессию (в шарде чата, пока ее никто не меняет),
+// а поток записи раз в flushMillis пишет накопленное одним пакетом - сколько бы раз
+// сессию ни меняли за это время, на диск попадает последняя версия.
+// Горячий уровень ограничен capacity сессиями; вытесняются давно не использованные,
+// кроме закрепленных (с живыми таймерами: таймер ищет свою сессию по ссылке)
+final class TieredSessionStore implements SessionStore {
+
+    // Максимум записей в одном пакете
+    private static final int MAX_BATCH = 10_000;
+    // Отметка удаления среди несохраненных изменений
+    private static final byte[] DELETED = new byte[0];
+
+    private final SessionLog log;
+    private final int capacity;
+    private final Predicate<UserSession> pinned;
+    // future: параллельные загрузки одного чата сливаются в одну
+    private final Map<Long, Entry> hot = new ConcurrentHashMap<>();
+    private final Map<Long, byte[]> pending = new ConcurrentHashMap<>();
+    private final ExecutorService loader = Executors.newFixedThreadPool(2, daemon("session-loader"));
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(daemon("session-writer"));
+    // Грубые часы для LRU: шаг - один цикл записи, чтения обходятся без System.nanoTime
+    private volatile long clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder unchanged = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+
+    TieredSessionStore(File dir, int capacity, long flushMillis, Predicate<UserSession> pinned) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Не удалось создать каталог сессий " + dir);
+        }
+        this.log = new SessionLog(new File(dir, "sessions.log"));
+        this.capacity = capacity;
+        this.pinned = pinned;
+        writer.scheduleWithFixedDelay(this::flushAndTrim, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        BotLog.info("sessions", "Сессий на диске: " + log.size() + ", журнал " + log.getBytes() / 1024 + " КБ");
+    }
+
+    @Override
+    public UserSession get(long chatId) {
+        return join(entry(chatId, false).future);
+    }
+
+    @Override
+    public UserSession getOrCreate(long chatId, LongFunction<UserSession> factory) {
+        UserSession session = get(chatId);
+        if (session == null) {
+            session = factory.apply(chatId);
+            put(chatId, session);
+        }
+        return session;
+    }
+
+    @Override
+    public CompletableFuture<UserSession> getAsync(long chatId) {
+        return entry(chatId, true).future;
+    }
+
+    // Промахи читаются параллельно потоками загрузки
+    @Override
+    public Map<Long, UserSession> getAll(Collection<Long> chatIds) {
+        Map<Long, CompletableFuture<UserSession>> loading = new HashMap<>();
+        for (Long chatId : chatIds) {
+            loading.put(chatId, getAsync(chatId));
+        }
+        Map<Long, UserSession> result = new HashMap<>();
+        loading.forEach((chatId, future) -> {
+            UserSession session = join(future);
+            if (session != null) {
+                result.put(chatId, session);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public UserSession compute(long chatId, BiFunction<Long, UserSession, UserSession> function) {
+        UserSession session = function.apply(chatId, get(chatId));
+        if (session != null) {
+            put(chatId, session);
+        } else {
+            remove(chatId);
+        }
+        return session;
+    }
+
+    // Сначала несохраненная версия, потом горячий уровень: загрузка, начатая между ними, прочтет новую.
+    // Сессия, не изменившаяся с прошлого сохранения (просмотр без действий), не пишется
+    @Override
+    public void put(long chatId, UserSession session) {
+        byte[] data = session.toBytes();
+        Entry entry = hot.get(chatId);
+        if (entry != null && entry.future.getNow(null) == session) {
+            entry.accessed = clock;
+            if (Arrays.equals(entry.stored, data)) {
+                unchanged.increment();
+                return;
+            }
+            pending.put(chatId, data);
+            entry.stored = data;
+        } else {
+            pending.put(chatId, data);
+            Entry created = new Entry(CompletableFuture.completedFuture(session), clock);
+            created.stored = data;
+            hot.put(chatId, created);
+        }
+    }
+
+    @Override
+    public void putAll(Map<Long, UserSession> sessions) {
+        sessions.forEach(this::put);
+    }
+
+    @Override
+    public UserSession remove(long chatId) {
+        UserSession session = get(chatId);
+        pending.put(chatId, DELETED);
+        hot.remove(chatId);
+        return session;
+    }
+
+    @Override
+    public List<Long> chats() {
+        // Снимок очереди раньше журнала: сессия, записанная между ними, попадет хотя бы в один
+        Map<Long, byte[]> changes = new HashMap<>(pending);
+        Set<Long> chats = new HashSet<>(log.keys());
+        changes.forEach((chatId, data) -> {
+            if (data == DELETED) {
+                chats.remove(chatId);
+            } else {
+                chats.add(chatId);
+            }
+        });
+        return new ArrayList<>(chats);
+    }
+
+    // Горячие сессии - как есть, остальные - из несохраненных изменений или журнала; прочитанные с диска
+    // в горячий уровень не попадают, чтобы перебор не вытеснил активных пользователей
+    @Override
+    public void forEachSession(BiConsumer<Long, UserSession> action) {
+        Set<Long> seen = new HashSet<>();
+        hot.forEach((chatId, entry) -> {
+            // Еще загружающиеся прочитаются ниже
+            if (entry.future.isDone() && !entry.future.isCompletedExceptionally()) {
+                seen.add(chatId);
+                UserSession session = entry.future.join();
+                if (session != null) {
+                    action.accept(chatId, session);
+                }
+            }
+        });
+        // Снимок очереди раньше журнала: сессия, записанная между ними, попадет хотя бы в один
+        Map<Long, byte[]> changes = new HashMap<>(pending);
+        try {
+            for (Map.Entry<Long, byte[]> change : changes.entrySet()) {
+                if (seen.add(change.getKey()) && change.getValue() != DELETED) {
+                    action.accept(change.getKey(), UserSession.fromBytes(change.getValue()));
+                }
+            }
+            for (Long chatId : log.keys()) {
+                if (seen.contains(chatId)) {
+                    continue;
+                }
+                byte[] data = log.read(chatId);
+                if (data != null) {
+                    action.accept(chatId, UserSession.fromBytes(data));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Не удалось прочитать сессии", e);
+        }
+    }
+
+    // Оценка без построения списка всех чатов: журнал плюс еще не записанные новые, минус еще не записанные удаления
+    @Override
+    public int size() {
+        int size = log.size();
+        for (Map.Entry<Long, byte[]> change : pending.entrySet()) {
+            boolean stored = log.contains(change.getKey());
+            if (change.getValue() == DELETED && stored) {
+                size--;
+            } else if (change.getValue() != DELETED && !stored) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        loader.shutdown();
+        while (!pending.isEmpty() && flush()) {
+            // Пакеты до конца несохраненных изменений
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            BotLog.error("sessions", "Ошибка закрытия журнала сессий", e);
+        }
+    }
+
+    int hotSize() { return hot.size(); }
+    int pendingSize() { return pending.size(); }
+    long getHits() { return hits.sum(); }
+    long getLoads() { return loads.sum(); }
+    long getUnchanged() { return unchanged.sum(); }
+    long getWritten() { return written.sum(); }
+    long getBatches() { return batches.sum(); }
+    long getEvicted() { return evicted.sum(); }
+    long getWriteErrors() { return writeErrors.sum(); }
+    long getLogBytes() { return log.getBytes(); }
+    long getLiveBytes() { return log.getLiveBytes(); }
+
+    private Entry entry(long chatId, boolean async) {
+        Entry entry = hot.get(chatId);
+        if (entry != null) {
+            hits.increment();
+            entry.accessed = clock;
+            return entry;
+        }
+        Entry created = new Entry(new CompletableFuture<>(), clock);
+        entry = hot.putIfAbsent(chatId, created);
+        if (entry != null) {
+            entry.accessed = clock;
+            return entry;
+        }
+        if (async) {
+            try {
+                loader.execute(() -> load(chatId, created));
+            } catch (RuntimeException e) {
+                // Хранилище закрывается: загрузка в текущем потоке
+                load(chatId, created);
+            }
+        } else {
+            load(chatId, created);
+        }
+        return created;
+    }
+
+    private void load(long chatId, Entry entry) {
+        try {
+            byte[] data = pending.get(chatId);
+            if (data == null) {
+                loads.increment();
+                data = log.read(chatId);
+            }
+            if (data == null || data == DELETED) {
+                entry.future.complete(null);
+            } else {
+                entry.stored = data;
+                entry.future.complete(UserSession.fromBytes(data));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Следующее обращение попробует снова
+            hot.remove(chatId, entry);
+            entry.future.completeExceptionally(e);
+        }
+    }
+
+    private void flushAndTrim() {
+        try {
+            clock++;
+            flush();
+            log.compactIfNeeded();
+            trim();
+        } catch (IOException | RuntimeException e) {
+            BotLog.error("sessions", "Ошибка обслуживания журнала сессий", e);
+        }
+    }
+
+    // Один пакет несохраненных изменений; false - запись не удалась
+    private boolean flush() {
+        if (pending.isEmpty()) {
+            return true;
+        }
+        Map<Long, byte[]> batch = new HashMap<>();
+        Map<Long, byte[]> values = new HashMap<>();
+        for (Map.Entry<Long, byte[]> change : pending.entrySet()) {
+            batch.put(change.getKey(), change.getValue());
+            values.put(change.getKey(), change.getValue() == DELETED ? null : change.getValue());
+            if (batch.size() >= MAX_BATCH) {
+                break;
+            }
+        }
+        try {
+            log.write(values);
+        } catch (IOException e) {
+            writeErrors.increment();
+            BotLog.error("sessions", "Не удалось записать " + batch.size() + " сессий, повтор на следующем шаге", e);
+            return false;
+        }
+        // Сессия, измененная во время записи, остается в очереди со своей новой версией
+        batch.forEach(pending::remove);
+        written.add(batch.size());
+        batches.increment();
+        return true;
+    }
+
+    // Вытеснение самых давно использованных до 90% емкости
+    private void trim() {
+        int excess = hot.size() - capacity;
+        if (excess <= 0) {
+            return;
+        }
+        excess += capacity / 10;
+        // Отметки копируются: во время сортировки их меняют потоки обработчиков
+        List<Candidate> candidates = new ArrayList<>(hot.size());
+        for (Map.Entry<Long, Entry> candidate : hot.entrySet()) {
+            Entry entry = candidate.getValue();
+            // Таймеры читаются из чужого потока: закрепление best effort, ошибка стоит только таймера режима
+            if (entry.future.isDone() && !entry.future.isCompletedExceptionally()
+                    && (entry.future.getNow(null) == null || !pinned.test(entry.future.getNow(null)))) {
+                candidates.add(new Candidate(candidate.getKey(), entry, entry.accessed));
+            }
+        }
+        candidates.sort((a, b) -> Long.compare(a.accessed, b.accessed));
+        for (int i = 0; i < candidates.size() && excess > 0; i++) {
+            if (hot.remove(candidates.get(i).chatId, candidates.get(i).entry)) {
+                evicted.increment();
+                excess--;
+            }
+        }
+    }
+
+    private static UserSession join(CompletableFuture<UserSession> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Не удалось прочитать сессию", e.getCause());
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Entry {
+        final CompletableFuture<UserSession> future;
+        volatile long accessed;
+        // Последняя сохраненная версия: с ней сравнивается очередной put
+        volatile byte[] stored;
+
+        Entry(CompletableFuture<UserSession> future, long accessed) {
+            this.future = future;
+            this.accessed = accessed;
+        }
+    }
+
+    private static final class Candidate {
+        final long chatId;
+        final Entry entry;
+        final long accessed;
+
+        Candidate(long chatId, Entry entry, long accessed) {
+            this.chatId = chatId;
+            this.entry = entry;
+            this.accessed = accessed;
+        }
+    }
+}
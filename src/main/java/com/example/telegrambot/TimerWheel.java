@@ -0,0 +1,237 @@
+package com.example.telegrambot;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Таймеры на хешированном колесе: wheelSize ячеек по tickMillis, в ячейке - двусвязный список.
+// Постановка и отмена - O(1) без блокировок (очереди, которые разбирает поток колеса раз в тик),
+// на каждом тике обходится одна ячейка. Сработавшие таймеры не выполняются в потоке колеса,
+// а передаются пачкой в Dispatcher - например, в шард обработчиков своего чата
+final class TimerWheel {
+
+    interface Task {
+        void run(Timeout timeout);
+    }
+
+    // false - исполнитель переполнен; таймер повторится на следующем тике
+    interface Dispatcher {
+        boolean dispatch(long key, Timeout timeout);
+    }
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    // Не больше стольких новых таймеров переносится в колесо за тик, чтобы тик не затягивался
+    private static final int TRANSFER_PER_TICK = 100_000;
+
+    static final class Timeout {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        final long key;
+        private final Task task;
+        private final TimerWheel wheel;
+        private final long deadlineTick;
+        private volatile int state = PENDING;
+        // Поля ниже меняет только поток колеса
+        private long rounds;
+        private Timeout prev;
+        private Timeout next;
+        private Bucket bucket;
+
+        private Timeout(TimerWheel wheel, long key, long deadlineTick, Task task) {
+            this.wheel = wheel;
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+            this.task = task;
+        }
+
+        // false - таймер уже сработал или отменен
+        boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.increment();
+            wheel.cancellations.add(this);
+            return true;
+        }
+
+        boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        // Выполнить задачу; вызывается исполнителем, которому таймер передан
+        void run() {
+            task.run(this);
+        }
+    }
+
+    private static final class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final Dispatcher dispatcher;
+    private final long startNanos = System.nanoTime();
+
+    private final Queue<Timeout> additions = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancellations = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+
+    private final Thread worker;
+    private volatile boolean running = true;
+    // Номер текущего тика; пишет только поток колеса
+    private volatile long tick;
+
+    // wheelSize округляется вверх до степени двойки
+    TimerWheel(String name, long tickMillis, int wheelSize, Dispatcher dispatcher) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.dispatcher = dispatcher;
+
+        Thread thread = new Thread(this::runWheel, name);
+        thread.setDaemon(true);
+        thread.start();
+        this.worker = thread;
+    }
+
+    // key - ключ исполнителя (chatId); срабатывание не раньше чем через delayMillis
+    Timeout schedule(long key, long delayMillis, Task task) {
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        long deadline = System.nanoTime() - startNanos + delayNanos;
+        // Округление вверх: таймер не срабатывает раньше срока
+        long deadlineTick = Math.max(tick + 1, (deadline + tickNanos - 1) / tickNanos);
+        Timeout timeout = new Timeout(this, key, deadlineTick, task);
+        pending.incrementAndGet();
+        additions.add(timeout);
+        return timeout;
+    }
+
+    long getPending() { return pending.get(); }
+    long getExpired() { return expired.sum(); }
+    long getCancelled() { return cancelled.sum(); }
+    long getDeferred() { return deferred.sum(); }
+
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    private void runWheel() {
+        long current = 0;
+        while (running) {
+            long wakeAt = startNanos + (current + 1) * tickNanos;
+            long sleep = wakeAt - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+                continue;
+            }
+            current++;
+            tick = current;
+            try {
+                removeCancelled();
+                transferAdditions(current);
+                expire(buckets[(int) (current & mask)], current);
+            } catch (RuntimeException e) {
+                BotLog.error("timers", "Ошибка в потоке таймеров", e);
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancellations.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferAdditions(long current) {
+        for (int i = 0; i < TRANSFER_PER_TICK; i++) {
+            Timeout timeout = additions.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state != PENDING) {
+                continue;
+            }
+            place(timeout, Math.max(current, timeout.deadlineTick), current);
+        }
+    }
+
+    private void place(Timeout timeout, long atTick, long current) {
+        timeout.rounds = (atTick - current) / buckets.length;
+        buckets[(int) (atTick & mask)].add(timeout);
+    }
+
+    private void expire(Bucket bucket, long current) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                bucket.remove(timeout);
+                if (Timeout.STATE.compareAndSet(timeout, PENDING, EXPIRED)) {
+                    if (dispatcher.dispatch(timeout.key, timeout)) {
+                        pending.decrementAndGet();
+                        expired.increment();
+                    } else {
+                        // Исполнитель переполнен: повтор через тик. Задача сама проверяет,
+                        // актуален ли таймер, поэтому гонка с отменой здесь безопасна
+                        deferred.increment();
+                        timeout.state = PENDING;
+                        place(timeout, current + 1, current);
+                    }
+                }
+            }
+            timeout = next;
+        }
+    }
+}
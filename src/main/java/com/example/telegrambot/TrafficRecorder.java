@@ -0,0 +1,111 @@
+package com.example.telegrambot;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+// Запись трафика в сжатый JSON-lines журнал: входящие обновления и исходящие вызовы API
+// с отметкой времени в микросекундах от начала записи. Сериализация и запись идут в фоновом потоке
+final class TrafficRecorder implements Closeable {
+
+    static final String IN = "in";
+    static final String OUT = "out";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final class Record {
+        final long micros;
+        final Update update;
+        final String method;
+        final long chatId;
+        final Object body;
+
+        Record(long micros, Update update, String method, long chatId, Object body) {
+            this.micros = micros;
+            this.update = update;
+            this.method = method;
+            this.chatId = chatId;
+            this.body = body;
+        }
+    }
+
+    private final RingBuffer<Record> queue = new RingBuffer<>(16384);
+    private final Writer writer;
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    TrafficRecorder(File file) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(file), 64 * 1024), StandardCharsets.UTF_8));
+        this.thread = new Thread(this::drain, "traffic-recorder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void recordInbound(Update update) {
+        offer(new Record(elapsedMicros(), update, null, 0, null));
+    }
+
+    void recordOutbound(String method, long chatId, Object body) {
+        offer(new Record(elapsedMicros(), null, method, chatId, body));
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    private void offer(Record record) {
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    private long elapsedMicros() {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private void drain() {
+        while (running || queue.size() > 0) {
+            Record record = queue.poll();
+            if (record == null) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+                continue;
+            }
+            try {
+                ObjectNode line = MAPPER.createObjectNode();
+                line.put("t", record.micros);
+                if (record.update != null) {
+                    line.set(IN, MAPPER.valueToTree(record.update));
+                } else {
+                    line.put(OUT, record.method);
+                    line.put("chat", record.chatId);
+                    line.set("body", MAPPER.valueToTree(record.body));
+                }
+                writer.write(MAPPER.writeValueAsString(line));
+                writer.write('\n');
+            } catch (IOException | IllegalArgumentException e) {
+                dropped.increment();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.telegrambot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+// Воспроизведение журнала TrafficRecorder против локальной заглушки Bot API.
+// Скорость: 1 - как в записи, 2.5 - в 2.5 раза быстрее, max - без пауз.
+// Исходящие вызовы записываются в out=... и сводятся в хеш для сравнения сборок
+//
+// mvn -q exec:java -Dexec.mainClass=com.example.telegrambot.TrafficReplayer \
+//     -Dexec.args="file=traffic.jsonl.gz speed=max seed=42 out=replay.jsonl.gz"
+public class TrafficReplayer {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                options.put(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        String file = options.get("file");
+        if (file == null) {
+            System.err.println("Укажите журнал: file=traffic.jsonl.gz");
+            System.exit(1);
+        }
+        String speedOption = options.getOrDefault("speed", "1");
+        double speed = speedOption.equals("max") ? 0 : Double.parseDouble(speedOption);
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        int models = Integer.parseInt(options.getOrDefault("models", "0"));
+        if (models > 0) {
+            MyBotService.load(CarCatalog.synthetic(models, 42));
+        }
+
+        // Ответы бота по чатам в порядке отправки: основа хеша для сравнения сборок
+        Map<Long, List<String>> outputs = new ConcurrentHashMap<>();
+        StubTelegramApi stub = new StubTelegramApi(0, 16).start();
+        stub.setListener((method, chatId, status, body) ->
+                outputs.computeIfAbsent(chatId, k -> Collections.synchronizedList(new ArrayList<>()))
+                        .add(method + " " + body.path("text").asText("")));
+
+        BotConfig config = new BotConfig();
+        config.setToken("replay");
+        config.setApiUrl(stub.getApiUrl());
+        config.setRandomSeed(seed);
+        config.setRecordFile(options.get("out"));
+        // Защита от флуда и упрощение ответов зависят от времени и сделали бы прогон недетерминированным
+        config.setRateLimitBurst(1_000_000);
+        config.setRateLimitPerSecond(1_000_000);
+        config.setOverloadControl(false);
+        // Фоновый пересчет рекомендаций тоже зависит от времени
+        config.setRecommendationsRefreshMillis(0);
+        // Как и таймеры режимов и викторины
+        config.setModeTimeoutMillis(0);
+        config.setQuizTimeLimitSeconds(0);
+        MyBot bot = new MyBot(config);
+
+        long updates = 0;
+        long started = System.nanoTime();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonNode record = MAPPER.readTree(line);
+                if (!record.has(TrafficRecorder.IN)) {
+                    continue;
+                }
+                if (speed > 0) {
+                    long due = started + (long) (record.get("t").asLong() * 1000 / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                Update update = MAPPER.treeToValue(record.get(TrafficRecorder.IN), Update.class);
+                refreshDate(update);
+                bot.onUpdateReceived(update);
+                updates++;
+            }
+        }
+        double injectSeconds = (System.nanoTime() - started) / 1e9;
+
+        // Ждем, пока очереди бота опустеют
+        while (bot.getHandlerStats().getDepth() > 0 || bot.getOutboundStats().getDepth() > 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        double totalSeconds = (System.nanoTime() - started) / 1e9;
+
+        System.out.printf("Обновлений: %d за %.2f с (%.1f/с), ответов: %d, всего %.2f с%n",
+                updates, injectSeconds, updates / Math.max(injectSeconds, 1e-9), stub.getRequests(), totalSeconds);
+        System.out.println("Хеш ответов: " + digest(outputs));
+
+        bot.onClosing();
+        stub.stop();
+        System.exit(0);
+    }
+
+    // Записанные даты устарели бы и обновления отбросились бы как просроченные
+    private static void refreshDate(Update update) {
+        int now = (int) (System.currentTimeMillis() / 1000);
+        if (update.hasMessage()) {
+            update.getMessage().setDate(now);
+        }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            update.getCallbackQuery().getMessage().setDate(now);
+        }
+    }
+
+    private static String digest(Map<Long, List<String>> outputs) throws Exception {
+        MessageDigest sha = MessageDigest.getInstance("SHA-256");
+        for (Long chatId : new TreeSet<>(outputs.keySet())) {
+            sha.update(Long.toString(chatId).getBytes(StandardCharsets.UTF_8));
+            for (String output : outputs.get(chatId)) {
+                sha.update(output.getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) '\n');
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : sha.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
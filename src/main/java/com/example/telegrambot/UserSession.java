@@ -0,0 +1,265 @@
+package com.example.telegrambot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Класс для хранения сессии пользователя
+class UserSession {
+    enum Mode {
+        NORMAL, SEARCH, COMPARE, FILTER
+    }
+
+    private Mode mode = Mode.NORMAL;
+    private String selectedBrand;
+    private String selectedCategory;
+    private final Set<String> favorites = new HashSet<>();
+    private final Map<String, Integer> brandViews = new HashMap<>();
+    private int correctAnswers = 0;
+    // Колода вопросов: перестановка (step * i + offset) mod size без хранения списка
+    private int currentQuizId = -1;
+    private long quizDeckVersion = -1;
+    private int quizDeckSize;
+    private int quizDeckStep;
+    private int quizDeckOffset;
+    private int quizDeckPosition;
+    // Состояние генератора splitmix64: случайность сессии воспроизводима по сиду
+    private long randomState;
+    // Таймеры сессии: выход из режима ввода и отсчет времени вопроса викторины.
+    // Как и остальные поля, меняются только в потоке обработчиков чата
+    private TimerWheel.Timeout modeTimeout;
+    private TimerWheel.Timeout quizTimeout;
+    private int quizMessageId;
+
+    // Версия формата writeTo/readFrom
+    private static final int FORMAT = 1;
+
+    UserSession() {
+        this(System.nanoTime());
+    }
+
+    UserSession(long randomSeed) {
+        this.randomState = randomSeed;
+    }
+
+    public void reset() {
+        setMode(Mode.NORMAL);
+        selectedBrand = null;
+        selectedCategory = null;
+    }
+
+    public void addFavorite(String model) {
+        favorites.add(model);
+    }
+
+    public void removeFavorite(String model) {
+        favorites.remove(model);
+    }
+
+    public Set<String> getFavorites() {
+        return new HashSet<>(favorites);
+    }
+
+    public void incrementBrandViews(String brand) {
+        brandViews.put(brand, brandViews.getOrDefault(brand, 0) + 1);
+    }
+
+    public Map<String, Integer> getBrandViews() {
+        return new HashMap<>(brandViews);
+    }
+
+    public void incrementCorrectAnswers() {
+        correctAnswers++;
+    }
+
+    public int getCorrectAnswers() {
+        return correctAnswers;
+    }
+
+    // Следующий вопрос без повторов, пока колода не пройдена; новая колода при смене каталога
+    public int nextQuizQuestion(int bankSize, long catalogVersion) {
+        if (bankSize <= 0) {
+            return currentQuizId = -1;
+        }
+        if (quizDeckVersion != catalogVersion || quizDeckSize != bankSize || quizDeckPosition >= bankSize) {
+            shuffleQuizDeck(bankSize, catalogVersion);
+        }
+        long index = ((long) quizDeckStep * quizDeckPosition + quizDeckOffset) % bankSize;
+        quizDeckPosition++;
+        return currentQuizId = (int) index;
+    }
+
+    // Засчитывает ответ только на текущий вопрос и только один раз
+    public boolean completeQuizQuestion(int questionId) {
+        if (questionId < 0 || questionId != currentQuizId) {
+            return false;
+        }
+        currentQuizId = -1;
+        return true;
+    }
+
+    private void shuffleQuizDeck(int bankSize, long catalogVersion) {
+        int step = bankSize == 1 ? 1 : 1 + nextRandomInt(bankSize - 1);
+        while (gcd(step, bankSize) != 1) {
+            step = 1 + nextRandomInt(bankSize - 1);
+        }
+        quizDeckStep = step;
+        quizDeckOffset = nextRandomInt(bankSize);
+        quizDeckSize = bankSize;
+        quizDeckVersion = catalogVersion;
+        quizDeckPosition = 0;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // Сессия для передачи другому узлу или записи на диск: все поля, кроме таймеров и сообщения
+    // с вопросом - их заводит новый владелец
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT);
+        out.writeByte(mode.ordinal());
+        writeNullable(out, selectedBrand);
+        writeNullable(out, selectedCategory);
+        out.writeInt(favorites.size());
+        for (String model : favorites) {
+            out.writeUTF(model);
+        }
+        out.writeInt(brandViews.size());
+        for (Map.Entry<String, Integer> entry : brandViews.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+        out.writeInt(correctAnswers);
+        out.writeInt(currentQuizId);
+        out.writeLong(quizDeckVersion);
+        out.writeInt(quizDeckSize);
+        out.writeInt(quizDeckStep);
+        out.writeInt(quizDeckOffset);
+        out.writeInt(quizDeckPosition);
+        out.writeLong(randomState);
+    }
+
+    static UserSession readFrom(DataInput in) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) {
+            throw new IOException("Неизвестный формат сессии: " + format);
+        }
+        UserSession session = new UserSession(0);
+        session.mode = Mode.values()[in.readUnsignedByte()];
+        session.selectedBrand = readNullable(in);
+        session.selectedCategory = readNullable(in);
+        for (int i = in.readInt(); i > 0; i--) {
+            session.favorites.add(in.readUTF());
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            session.brandViews.put(in.readUTF(), in.readInt());
+        }
+        session.correctAnswers = in.readInt();
+        session.currentQuizId = in.readInt();
+        session.quizDeckVersion = in.readLong();
+        session.quizDeckSize = in.readInt();
+        session.quizDeckStep = in.readInt();
+        session.quizDeckOffset = in.readInt();
+        session.quizDeckPosition = in.readInt();
+        session.randomState = in.readLong();
+        return session;
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static UserSession fromBytes(byte[] data) throws IOException {
+        return readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static void writeNullable(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // Пришедшая с другого узла сессия, когда здесь уже успела появиться новая:
+    // избранное и счетчики объединяются, текущий режим и выбор остаются здешними
+    void merge(UserSession other) {
+        favorites.addAll(other.favorites);
+        other.brandViews.forEach((brand, views) -> brandViews.merge(brand, views, Integer::sum));
+        correctAnswers += other.correctAnswers;
+    }
+
+    public int nextRandomInt(int bound) {
+        long z = (randomState += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (int) ((z >>> 1) % bound);
+    }
+
+    // Геттеры и сеттеры
+    public Mode getMode() { return mode; }
+
+    // При смене режима его таймер больше не нужен
+    public void setMode(Mode mode) {
+        if (mode != this.mode) {
+            setModeTimeout(null);
+        }
+        this.mode = mode;
+    }
+
+    public String getSelectedBrand() { return selectedBrand; }
+    public void setSelectedBrand(String brand) { this.selectedBrand = brand; }
+
+    public String getSelectedCategory() { return selectedCategory; }
+    public void setSelectedCategory(String category) { this.selectedCategory = category; }
+
+    public int getCurrentQuizId() { return currentQuizId; }
+
+    public long getQuizDeckVersion() { return quizDeckVersion; }
+
+    // Новый таймер заменяет прежний, прежний отменяется
+    public TimerWheel.Timeout getModeTimeout() { return modeTimeout; }
+    public void setModeTimeout(TimerWheel.Timeout timeout) {
+        if (modeTimeout != null && modeTimeout != timeout) {
+            modeTimeout.cancel();
+        }
+        this.modeTimeout = timeout;
+    }
+
+    public TimerWheel.Timeout getQuizTimeout() { return quizTimeout; }
+    public void setQuizTimeout(TimerWheel.Timeout timeout) {
+        if (quizTimeout != null && quizTimeout != timeout) {
+            quizTimeout.cancel();
+        }
+        this.quizTimeout = timeout;
+    }
+
+    // 0 - сообщение с вопросом еще не отправлено
+    public int getQuizMessageId() { return quizMessageId; }
+    public void setQuizMessageId(int messageId) { this.quizMessageId = messageId; }
+}